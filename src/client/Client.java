@@ -28,6 +28,7 @@ public class Client {
 	private Socket socket;
 	private PrintWriter out;
 	private BufferedReader in;
+	private FramedConnection framed; // set with -Dclient.protocol=framed. null speaks the text protocol.
 	
 	private ClientMessenger messenger;
 	
@@ -53,6 +54,7 @@ public class Client {
 				client.execute(command);
 				System.out.print("> ");
 			}
+			client.drain();
 		} catch (UnknownHostException e) {
 			e.printStackTrace();
 		} catch (SocketException e) {
@@ -70,6 +72,13 @@ public class Client {
 	}
 	
 	public void connectToServer() throws IOException {
+		if ("framed".equals(System.getProperty("client.protocol"))) {
+			if (this.framed == null) {
+				this.framed = new FramedConnection(messenger);
+				this.framed.connect();
+			}
+			return;
+		}
 		try {
 			this.ia = messenger.getServerAddress();
 			this.port = messenger.getServerPort();
@@ -140,6 +149,19 @@ public class Client {
 		}
 	}
 	
+	/**
+	 * waits for the responses of every pipelined command. <br>
+	 */
+	public void drain() {
+		if (this.framed != null) {
+			try {
+				this.framed.drain();
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+	
 	public void execute(String cmd) throws IOException {
 		String[] tokens = cmd.trim().split("\\s+");
 		switch (tokens[0]) {
@@ -151,11 +173,26 @@ public class Client {
 				// "search <user-name>"
 			case "list":
 				// "list"
-				this.sendTCPRequest(cmd);
+			case "addserver":
+				// "addserver <server-id> [<ip_address>:<port>]"
+			case "removeserver":
+				// "removeserver <server-id>"
+			case "stats":
+				// "stats"
+				if (this.framed != null) {
+					this.framed.send(cmd); // pipelined. the response is printed when it arrives.
+				} else {
+					this.sendTCPRequest(cmd);
+				}
 				break;
 			case "exit":
-				this.out.println("exit");
-				this.disconnectFromServer();
+				if (this.framed != null) {
+					this.drain();
+					this.framed.close();
+				} else {
+					this.out.println("exit");
+					this.disconnectFromServer();
+				}
 				System.out.println("Closed connection to server.");
 				System.exit(0); // finished.
 				break;
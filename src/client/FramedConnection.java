@@ -0,0 +1,297 @@
+package client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import messenger.ClientMessenger;
+import model.Frame;
+
+/** FramedConnection
+ * Client end of the framed protocol (see model.Frame).
+ * Commands are sent as soon as they are given, without waiting for the ones before them.
+ * A reader thread prints each response as it arrives, matched to its command by id.
+ * It blocks on whole frames: liveness is checked apart from it, by a watchdog thread.
+ * If the server goes quiet while commands are pending, or hangs up, the connection hops
+ * to the next server and sends the pending reads again. A pending write may already be decided,
+ * so it is not sent twice: its outcome is reported as unknown, to be checked with search.
+ *
+ * By: Gaurav Nagar, Hari Kosuru,
+ * Taylor Schmidt, and Ronald Macmaster.
+ * UT-EIDs: gn3544, hk8633, trs2277,  rpm953
+ * Date: 4/30/2017
+ */
+public class FramedConnection implements Runnable {
+
+	// milliseconds to connect and switch to frames.
+	private static final int CONNECT_TIMEOUT = 100;
+
+	// milliseconds without a frame before a server with pending commands is treated as dead. 40 keep-alive periods.
+	private static final int SERVER_TIMEOUT = 2000;
+
+	// response to a write that was pending when its server went away.
+	private static final String UNKNOWN = "Request outcome unknown: the server went away. search to confirm it.";
+
+	private ClientMessenger messenger;
+	private Socket socket;
+	private DataInputStream in;
+	private DataOutputStream out;
+
+	private TreeMap<Integer, String> pending = new TreeMap<Integer, String>(); // sent, not yet answered. by id.
+	private int nextId = 1; // 0 is the id of keep-alive frames.
+	private long heard = 0; // last frame from the server, or the send that started the wait. (ms)
+	private boolean closed = false;
+
+	/** FramedConnection <br>
+	 *
+	 * Constructs a new FramedConnection Object. Call connect() to open it. <br>
+	 */
+	public FramedConnection(ClientMessenger messenger) {
+		this.messenger = messenger;
+	}
+
+	/**
+	 * connect()
+	 *
+	 * Opens a framed session on the current server, hopping servers until one answers. <br>
+	 * Starts the response reader and the watchdog.
+	 */
+	public synchronized void connect() throws IOException {
+		open();
+		Thread reader = new Thread(this, "framed-reader");
+		reader.setDaemon(true);
+		reader.start();
+		Thread watchdog = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				watch();
+			}
+		}, "framed-watchdog");
+		watchdog.setDaemon(true);
+		watchdog.start();
+	}
+
+	/**
+	 * send()
+	 *
+	 * Sends a command and returns right away. Its response is printed when it arrives. <br>
+	 * The frame is written outside the monitor, so a full socket never keeps the reader from its responses.
+	 * A command longer than the servers accept is not sent.
+	 */
+	public void send(String command) {
+		if (new Frame(Frame.COMMAND, 0, command).length() > Frame.MAX_COMMAND) {
+			System.err.println("Command too long. not sent.");
+			return;
+		}
+		Frame frame;
+		DataOutputStream stream;
+		synchronized (this) {
+			int id = nextId++;
+			if (pending.isEmpty()) { // the server has SERVER_TIMEOUT from now to answer or ping.
+				heard = System.currentTimeMillis();
+			}
+			pending.put(id, command);
+			frame = new Frame(Frame.COMMAND, id, command);
+			stream = out;
+		}
+		write(stream, frame);
+	}
+
+	/**
+	 * drain()
+	 *
+	 * Blocks until every command sent has been answered. <br>
+	 */
+	public synchronized void drain() throws InterruptedException {
+		while (!pending.isEmpty()) {
+			wait();
+		}
+	}
+
+	/**
+	 * close()
+	 *
+	 * Ends the session. Pending commands are dropped. <br>
+	 */
+	public synchronized void close() throws IOException {
+		closed = true;
+		write(out, new Frame(Frame.COMMAND, 0, "exit"));
+		socket.close();
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			DataInputStream stream;
+			synchronized (this) {
+				if (closed) {
+					return;
+				}
+				stream = in;
+			}
+			try {
+				Frame frame = Frame.read(stream);
+				if (frame == null) {
+					System.err.println("Server crashed.");
+					reconnect(stream);
+				} else {
+					receive(frame);
+				}
+			} catch (IOException signal) { // the server hung up, or the watchdog closed the socket.
+				reconnect(stream);
+			}
+		}
+	}
+
+	/**
+	 * Watchdog. switches servers once the server has been silent for SERVER_TIMEOUT with commands pending. <br>
+	 * An idle session is never timed out: a server only pings while it works.
+	 * Closing the old socket wakes the reader, which then finds the new stream.
+	 */
+	private void watch() {
+		while (true) {
+			try {
+				Thread.sleep(SERVER_TIMEOUT / 4);
+			} catch (InterruptedException err) {
+				return;
+			}
+			synchronized (this) {
+				if (closed) {
+					return;
+				}
+				if (!pending.isEmpty() && System.currentTimeMillis() - heard >= SERVER_TIMEOUT) {
+					reconnect(in); // timeout, server is dead. switch servers.
+				}
+			}
+		}
+	}
+
+	/**
+	 * notes that the server is alive, and prints a response, once per command. <br>
+	 */
+	private synchronized void receive(Frame frame) {
+		heard = System.currentTimeMillis();
+		String command = (frame.getType() == Frame.RESPONSE) ? pending.remove(frame.getId()) : null;
+		if (command != null) {
+			System.out.println(frame.getPayload());
+			System.out.println("End of server response.");
+			notifyAll();
+		}
+	}
+
+	/**
+	 * switches to the next server and sends it every pending read, in the order they were given. <br>
+	 * Pending writes are answered as unknown instead: the old server may have decided them.
+	 * Does nothing if another failure already switched away from the given stream.
+	 */
+	private synchronized void reconnect(DataInputStream stream) {
+		if (closed || stream != in) {
+			return;
+		}
+		try {
+			socket.close();
+		} catch (IOException err) {
+			System.err.println("Could not close the connection: " + err.getMessage());
+		}
+		messenger.hopServers();
+		try {
+			open();
+		} catch (IOException err) {
+			System.err.println("Could not reconnect: " + err.getMessage());
+			return;
+		}
+		heard = System.currentTimeMillis();
+		Iterator<Map.Entry<Integer, String>> commands = pending.entrySet().iterator();
+		while (commands.hasNext()) {
+			Map.Entry<Integer, String> command = commands.next();
+			if (isWrite(command.getValue())) {
+				commands.remove();
+				System.out.println(UNKNOWN + " (" + command.getValue() + ")");
+				System.out.println("End of server response.");
+			} else {
+				write(out, new Frame(Frame.COMMAND, command.getKey(), command.getValue()));
+			}
+		}
+		notifyAll();
+	}
+
+	/**
+	 * true if a command changes the store, so running it twice could apply it twice. <br>
+	 */
+	private static boolean isWrite(String command) {
+		String name = command.trim().split("\\s+")[0];
+		return name.equals("purchase") || name.equals("cancel") || name.equals("noop") || name.equals("addserver") || name.equals("removeserver");
+	}
+
+	/**
+	 * connects to the current server and switches the session to frames. <br>
+	 * The handshake is answered with "framed", after the usual "ping".
+	 * Only the connect and the handshake time out. frames are then read without a timeout.
+	 */
+	private void open() throws IOException {
+		while (true) {
+			Socket socket = new Socket();
+			try {
+				socket.connect(new InetSocketAddress(messenger.getServerAddress(), messenger.getServerPort()), CONNECT_TIMEOUT);
+				socket.setSoTimeout(CONNECT_TIMEOUT);
+				DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+				out.write((Frame.HANDSHAKE + "\n").getBytes());
+				out.flush();
+				String line = "";
+				while (!(line = readLine(in)).equals(Frame.HANDSHAKE)) {
+					// the acknowledgement ping.
+				}
+				socket.setSoTimeout(0);
+				this.socket = socket;
+				this.in = in;
+				this.out = out;
+				return;
+			} catch (IOException err) {
+				socket.close();
+				System.err.format("ERROR: can't connect to host %s on port %d %n", messenger.getServerAddress().getHostAddress(), messenger.getServerPort());
+				System.err.println("Hopping servers.");
+				messenger.hopServers(); // retry on new server.
+			}
+		}
+	}
+
+	/**
+	 * reads one handshake line, before any frame arrives. <br>
+	 */
+	private static String readLine(DataInputStream in) throws IOException {
+		StringBuilder line = new StringBuilder();
+		int next;
+		while ((next = in.read()) != '\n') {
+			if (next < 0) {
+				throw new IOException("server hung up during the handshake");
+			}
+			if (next != '\r') {
+				line.append((char) next);
+			}
+		}
+		return line.toString();
+	}
+
+	/**
+	 * writes a frame. a failure is left to the reader, which sees the connection drop. <br>
+	 */
+	private static void write(DataOutputStream out, Frame frame) {
+		synchronized (out) {
+			try {
+				out.write(frame.toBytes());
+				out.flush();
+			} catch (IOException err) {
+				System.err.println("Could not send a command: " + err.getMessage());
+			}
+		}
+	}
+
+}
@@ -0,0 +1,140 @@
+package client;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import model.ServerTag;
+
+/** SessionBenchmark
+ * Measures how many idle client sessions the servers hold, and how fast they answer meanwhile.
+ * Opens the sessions round-robin over the given servers and keeps them all open.
+ * Then a sample of them sends "list" at once, and the latency of each answer is reported.
+ * usage: java client.SessionBenchmark <sessions> <active> <ip_address>:<port>...
+ * Compare the server's thread count (e.g. grep Threads /proc/<pid>/status) under
+ * -Dserver.threads=platform, -Dserver.threads=virtual and -Dserver.tcp=selector.
+ * Past about 28k sessions per server port, widen the client's ephemeral port range.
+ *
+ * By: Gaurav Nagar, Hari Kosuru,
+ * Taylor Schmidt, and Ronald Macmaster.
+ * UT-EIDs: gn3544, hk8633, trs2277,  rpm953
+ * Date: 4/29/2017
+ */
+public class SessionBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3) {
+			System.err.println("usage: java client.SessionBenchmark <sessions> <active> <ip_address>:<port>...");
+			System.exit(1);
+		}
+		int sessions = Integer.parseInt(args[0]);
+		int active = Math.min(sessions, Integer.parseInt(args[1]));
+		List<ServerTag> servers = new ArrayList<ServerTag>();
+		for (int idx = 2; idx < args.length; idx++) {
+			ServerTag tag = ServerTag.parse(args[idx]);
+			if (tag == null) {
+				System.err.println("Could not parse server tag " + args[idx] + ". format: " + ServerTag.getFormat());
+				System.exit(1);
+			}
+			servers.add(tag);
+		}
+
+		// open every session. they stay idle until the end.
+		List<Socket> sockets = new ArrayList<Socket>(sessions);
+		long start = System.nanoTime();
+		int failures = 0;
+		for (int idx = 0; idx < sessions; idx++) {
+			ServerTag tag = servers.get(idx % servers.size());
+			Socket socket = new Socket();
+			try {
+				socket.connect(new InetSocketAddress(tag.getAddress(), tag.getPort()), 1000);
+				sockets.add(socket);
+			} catch (IOException err) {
+				socket.close();
+				failures += 1;
+				if (failures == 1) {
+					System.err.println("Could not open session " + idx + ": " + err.getMessage());
+				}
+			}
+			if ((idx + 1) % Math.max(1, sessions / 10) == 0) {
+				System.out.format("%d sessions open after %d ms.%n", sockets.size(), elapsed(start));
+			}
+		}
+		long opened = elapsed(start);
+		System.out.format("Opened %d sessions in %d ms (%d failed).%n", sockets.size(), opened, failures);
+
+		// a sample of the sessions asks at once, while the rest stay connected.
+		final List<Long> latencies = Collections.synchronizedList(new ArrayList<Long>());
+		ExecutorService clients = Executors.newFixedThreadPool(Math.max(1, Math.min(active, 256)));
+		int stride = Math.max(1, sockets.size() / Math.max(1, active));
+		for (int idx = 0; idx < active && idx * stride < sockets.size(); idx++) {
+			final Socket socket = sockets.get(idx * stride);
+			clients.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						latencies.add(request(socket, "list"));
+					} catch (IOException err) {
+						System.err.println("Request failed: " + err.getMessage());
+					}
+				}
+			});
+		}
+		clients.shutdown();
+		clients.awaitTermination(10, TimeUnit.MINUTES);
+
+		List<Long> sorted = new ArrayList<Long>(latencies);
+		Collections.sort(sorted);
+		if (sorted.isEmpty()) {
+			System.out.println("No request was answered.");
+		} else {
+			System.out.format("%d of %d requests answered with %d sessions open. latency ms: p50 %.1f, p99 %.1f, max %.1f%n",
+					sorted.size(), active, sockets.size(), percentile(sorted, 50), percentile(sorted, 99), percentile(sorted, 100));
+		}
+
+		for (Socket socket : sockets) {
+			socket.close();
+		}
+	}
+
+	/**
+	 * request()
+	 *
+	 * Sends one command on an open session and reads up to "EOT". <br>
+	 * returns the latency in nanoseconds.
+	 */
+	private static long request(Socket socket, String command) throws IOException {
+		socket.setSoTimeout(30000);
+		BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+		PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+		long start = System.nanoTime();
+		out.println(command);
+		String line = "";
+		while ((line = in.readLine()) != null && !line.equals("EOT")) {
+			// ping and response lines.
+		}
+		if (line == null) {
+			throw new IOException("server closed the session");
+		}
+		return System.nanoTime() - start;
+	}
+
+	private static long elapsed(long start) {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+	}
+
+	private static double percentile(List<Long> sorted, int percent) {
+		int idx = Math.min(sorted.size() - 1, (int) Math.ceil(percent / 100.0 * sorted.size()) - 1);
+		return sorted.get(Math.max(0, idx)) / 1e6;
+	}
+
+}
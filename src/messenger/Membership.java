@@ -0,0 +1,145 @@
+package messenger;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import model.ServerTag;
+
+/** Membership
+ * The cluster configuration: the servers whose votes make up a quorum.
+ * It starts as the servers read at startup and changes only when an
+ * addserver / removeserver command is applied from the log, so every replica
+ * moves through the same configurations in the same order.
+ * A change adds or removes one server, so any majority of the old configuration
+ * overlaps any majority of the new one.
+ *
+ * By: Gaurav Nagar, Hari Kosuru,
+ * Taylor Schmidt, and Ronald Macmaster.
+ * UT-EIDs: gn3544, hk8633, trs2277,  rpm953
+ * Date: 4/29/2017
+ */
+public class Membership {
+
+	private TreeMap<Integer, ServerTag> members; // current configuration.
+	private Map<Integer, ServerTag> known; // every server ever configured, for re-admission.
+
+	/** Membership <br>
+	 *
+	 * Constructs the startup configuration from the server tags. <br>
+	 * @param joining the server is outside the configuration until an addserver is applied.
+	 */
+	public Membership(Map<Integer, ServerTag> tags, Integer serverId, boolean joining) {
+		this.members = new TreeMap<Integer, ServerTag>(tags);
+		this.known = new HashMap<Integer, ServerTag>(tags);
+		if (joining) {
+			members.remove(serverId);
+		}
+	}
+
+	/**
+	 * true if the server votes in the current configuration. <br>
+	 */
+	public synchronized boolean contains(Integer serverId) {
+		return members.containsKey(serverId);
+	}
+
+	/**
+	 * ids of the current configuration, ascending. <br>
+	 */
+	public synchronized List<Integer> getIds() {
+		return new ArrayList<Integer>(members.keySet());
+	}
+
+	/**
+	 * tag of any server ever configured, even one removed since. <br>
+	 */
+	public synchronized ServerTag getTag(Integer serverId) {
+		return known.get(serverId);
+	}
+
+	/**
+	 * number of servers in the current configuration. <br>
+	 */
+	public synchronized int size() {
+		return members.size();
+	}
+
+	/**
+	 * quorum()
+	 *
+	 * returns the votes a paxos phase or a quorum read needs: a majority of the configuration. <br>
+	 */
+	public synchronized int quorum() {
+		return (members.size() / 2) + 1;
+	}
+
+	/**
+	 * add()
+	 *
+	 * Adds a server to the configuration. returns false if it is a member already. <br>
+	 */
+	public synchronized boolean add(Integer serverId, ServerTag tag) {
+		known.put(serverId, tag);
+		return members.put(serverId, tag) == null;
+	}
+
+	/**
+	 * remove()
+	 *
+	 * Removes a server from the configuration. <br>
+	 * returns false if it is not a member, or is the last one.
+	 */
+	public synchronized boolean remove(Integer serverId) {
+		if (!members.containsKey(serverId) || members.size() == 1) {
+			return false;
+		}
+		members.remove(serverId);
+		return true;
+	}
+
+	/**
+	 * write()
+	 *
+	 * Writes the configuration as {id, address, port} rows. <br>
+	 */
+	public synchronized void write(DataOutputStream out) throws IOException {
+		out.writeInt(members.size());
+		for (Map.Entry<Integer, ServerTag> member : members.entrySet()) {
+			out.writeInt(member.getKey());
+			out.write(member.getValue().getAddressBytes());
+			out.writeInt(member.getValue().getPort());
+		}
+	}
+
+	/**
+	 * read()
+	 *
+	 * Replaces the configuration with the one written by write(). <br>
+	 */
+	public synchronized void read(DataInputStream in) throws IOException {
+		int count = in.readInt();
+		TreeMap<Integer, ServerTag> members = new TreeMap<Integer, ServerTag>();
+		for (int row = 0; row < count; row++) {
+			int serverId = in.readInt();
+			byte[] address = new byte[4];
+			in.readFully(address);
+			int port = in.readInt();
+			ServerTag tag = ServerTag.parse(String.format("%d.%d.%d.%d:%d", address[0] & 0xff, address[1] & 0xff, address[2] & 0xff, address[3] & 0xff, port));
+			members.put(serverId, tag);
+			known.put(serverId, tag);
+		}
+		this.members = members;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return members.keySet().toString();
+	}
+
+}
@@ -1,24 +1,44 @@
 package messenger;
 
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import model.*;
+import server.CommandLog;
+import server.Journal;
 import server.Server;
+import server.ServerConfig;
+import server.ServerSelectorListener;
 import server.ServerTCPListener;
 import server.ServerUDPListener;
+import server.TimerWheel;
 
 /**
  * ServerMessenger
@@ -38,20 +58,48 @@ public class ServerMessenger extends Messenger {
 	private ServerTag serverTag;
 	
 	// server-server communication
-	private DatagramSocket socket; // outgoing port
+	private DatagramSocket socket; // outgoing port, shared by every reply.
+	private ServerUDPListener listener; // incoming port.
+	private Membership membership; // replicated configuration. tags holds the members not removed as down.
+	private boolean joining = false; // started outside the configuration, to be added at runtime.
 	
 	// Paxos Algorithm
 	private Integer senderId = -1; // set as a return handle when msgs are parsed.
 	
 	// proposer
-	private Integer numAccepts = 0, numRejects = 0; // number of acks a proposer tracks while it waits.
-	private LamportClock proposedNumber = null; // last accepted proposal number.
-	private String proposedCommand = null; // last accepted command tied to the last accepted proposal number.
+	private TreeMap<Integer, Round> rounds = new TreeMap<Integer, Round>(); // in-flight proposals by log slot.
+	private boolean preparing = false; // a round is running phase 1. others wait for its ballot.
+	private boolean reconfiguring = false; // a membership change is in flight. later slots wait for it.
+	private TreeMap<Integer, Proposal> recovered = new TreeMap<Integer, Proposal>(); // values acceptors reported in phase 1.
+	
+	// multi-paxos leader
+	private LamportClock leaderNumber = null; // ballot held across rounds while this server leads.
+	private Integer leaderSlot = null; // first slot covered by the leader's phase 1.
+	private Integer leaderId = null; // server that owns the highest ballot we have seen.
+	private long leaseExpiry = 0; // our leader lease holds until then. (ms)
+	
+	// lease granted to a leader by this acceptor. only lease reads need one, and only a stable leader holds one.
+	private static final boolean LEASES = ServerConfig.MULTI_PAXOS && ServerConfig.READ_CONSISTENCY.equals("lease");
+	private Integer leaseHolder = null; // leader we accepted from most recently.
+	private long leaseGranted = 0; // other proposers' prepares are refused until then. (ms)
 	
 	// acceptor
 	private LamportClock promisedNumber = new LamportClock(0, 0); // acceptor promises to reject below to this proposal.
-	private LamportClock acceptedNumber = null; // last accepted proposal number.
-	private String acceptedCommand = null; // last accepted command tied to the last accepted proposal number.
+	private TreeMap<Integer, Proposal> accepted = new TreeMap<Integer, Proposal>(); // last accepted proposal per undecided slot.
+	private static final int CATCHUP_LIMIT = 16; // decided slots replayed to a lagging proposer per prepare.
+	private static final int PAGE_SIZE = ServerConfig.DATAGRAM_SIZE / 2; // bytes of promise entries per datagram.
+	private long nextPromise = System.currentTimeMillis(); // id of our next promise. never reused across restarts.
+	private Journal journal = null; // promises and accepts, synced before the reply goes out. null: memory only.
+	
+	// learner
+	private TreeMap<Integer, Long> relearning = new TreeMap<Integer, Long>(); // missing slots we asked a peer to resend, and when.
+	private static final int RETRANSMIT_LIMIT = 3; // silent timeouts before an acceptor is treated as down.
+	
+	// read index
+	private TreeMap<Integer, ReadIndex> reads = new TreeMap<Integer, ReadIndex>(); // quorum reads waiting on replies.
+	private int nextRead = 0;
+	private ReentrantLock readLock = new ReentrantLock(); // guards the replies of every ReadIndex.
+	private Condition readReplied = readLock.newCondition(); // a read got a reply. waited on outside the messenger.
 	
 	private boolean decided = false;
 	
@@ -60,6 +108,87 @@ public class ServerMessenger extends Messenger {
 	private LamportClock timestamp;
 	private PriorityQueue<LamportClock> queue;
 	
+	/**
+	 * Round
+	 * <p>
+	 * Proposer state of one in-flight slot. <br>
+	 * Counts the acceptor replies for the phase the round is in.
+	 * A reply doubles as the acknowledgement of the phase message, so silent acceptors get a retransmit.
+	 */
+	private static class Round {
+		
+		private int slot;
+		private String phase = "prepare"; // prepare or accept
+		private String message; // phase message, kept for retransmission.
+		private boolean recovering = false; // proposes a value left behind by an earlier leader.
+		private Integer numAccepts = 0, numRejects = 0; // number of acks a proposer tracks while it waits.
+		private Set<Integer> replied = new HashSet<Integer>(); // acceptors that answered this phase.
+		private Map<Integer, Long> promises = new HashMap<Integer, Long>(); // promise each acceptor is sending in pages.
+		private Map<Integer, Set<Integer>> pages = new HashMap<Integer, Set<Integer>>(); // pages of it received so far.
+		private int timeouts = 0; // silent retransmit timeouts of this phase.
+		private boolean failed = false; // the acceptors still silent were removed as down.
+		
+		private Round(int slot) {
+			this.slot = slot;
+		}
+		
+		private void startPhase(String phase, String message) {
+			this.phase = phase;
+			this.message = message;
+			this.numAccepts = this.numRejects = 0;
+			this.replied.clear();
+			this.promises.clear();
+			this.pages.clear();
+			this.timeouts = 0;
+			this.failed = false;
+		}
+		
+		/** counts a reply once per acceptor. returns false for a duplicate. */
+		private boolean reply(String phase, Integer senderId) {
+			return this.phase.equals(phase) && replied.add(senderId);
+		}
+		
+		/** notes one page of an acceptor's promise. returns false for a duplicate, or once the promise counted. */
+		private boolean page(Integer senderId, long promise, int page) {
+			if (!phase.equals("prepare") || replied.contains(senderId)) {
+				return false;
+			}
+			if (!Long.valueOf(promise).equals(promises.get(senderId))) { // a newer reply. its pages may split differently.
+				promises.put(senderId, promise);
+				pages.put(senderId, new HashSet<Integer>());
+			}
+			return pages.get(senderId).add(page);
+		}
+		
+		/** true once every page of the acceptor's promise has arrived. */
+		private boolean whole(Integer senderId, int count) {
+			return pages.get(senderId).size() >= count;
+		}
+	}
+	
+	/**
+	 * ReadIndex
+	 * <p>
+	 * A quorum read waiting for a majority to report how far their logs reach. <br>
+	 * Any majority overlaps the acceptors of every acknowledged write,
+	 * so the highest reported slot covers all of them.
+	 */
+	private static class ReadIndex {
+		
+		private int id;
+		private int index; // highest slot a replier has accepted or decided.
+		private String message; // request, kept for retransmission.
+		private Set<Integer> replied = new HashSet<Integer>(); // servers that reported. guarded by readLock.
+		private int timeouts = 0; // silent retransmit timeouts. guarded by readLock.
+		private boolean failed = false; // no majority answered in time. guarded by readLock.
+		
+		private ReadIndex(int id, int index) {
+			this.id = id;
+			this.index = index;
+			this.message = "readindex " + id;
+		}
+	}
+	
 	/**
 	 * ServerMessenger
 	 * <p>
@@ -70,6 +199,23 @@ public class ServerMessenger extends Messenger {
 		this.queue = new PriorityQueue<LamportClock>();
 	}
 	
+	/**
+	 * init()
+	 * <p>
+	 * Reads the server tags, and builds the startup configuration from them. <br>
+	 * Membership changes are applied by the command log outside the messenger lock,
+	 * so the live tags become a concurrent map.
+	 */
+	@Override
+	public void init() {
+		super.init();
+		this.tags = new ConcurrentHashMap<Integer, ServerTag>(tags);
+		this.membership = new Membership(tags, serverId, joining);
+		if (joining) {
+			tags.remove(serverId);
+		}
+	}
+	
 	/**
 	 * start()
 	 * <p>
@@ -78,10 +224,15 @@ public class ServerMessenger extends Messenger {
 	public void start() {
 		try { // start server port listeners
 			this.timestamp = new LamportClock(serverId);
-			this.serverTag = tags.get(serverId); // set my server tag.
+			this.serverTag = membership.getTag(serverId); // set my server tag.
 			this.socket = new DatagramSocket(); // personal backchannel socket.
-			new ServerTCPListener(server, serverTag.getPort()).start();
-			new ServerUDPListener(server, serverTag.getUDPPort()).start();
+			if (ServerConfig.TCP_MODE.equals("selector")) { // one thread for every client.
+				new ServerSelectorListener(server, serverTag.getPort()).start();
+			} else {
+				new ServerTCPListener(server, serverTag.getPort()).start();
+			}
+			this.listener = new ServerUDPListener(server, serverTag.getUDPPort());
+			listener.start();
 			System.out.format("Server %d: now listening on (tcp, udp) ports (%d, %d)%n", serverId, serverTag.getPort(), serverTag.getUDPPort());
 		} catch (SocketException e) {
 			System.err.println("Could not start the server messenger. Exiting...");
@@ -91,13 +242,14 @@ public class ServerMessenger extends Messenger {
 	}
 	
 	// parse server metadata.
-	@Override // <serverId> <numServers> <filename>
+	@Override // <serverId> <numServers> <filename> [join]
 	protected boolean parseMetadata(String metadata) {
 		try {
 			String[] tokens = metadata.split("\\s+");
 			this.serverId = Integer.parseInt(tokens[0]);
 			this.numServers = Integer.parseInt(tokens[1]);
 			server.filename = tokens[2]; // inventory path
+			this.joining = (tokens.length > 3) && tokens[3].equalsIgnoreCase("join");
 			if ((numServers <= 0) || (serverId < 1) || (serverId > numServers)) {
 				System.err.println("Bad metadata values. make sure numServers > 0.");
 				return false;
@@ -117,7 +269,7 @@ public class ServerMessenger extends Messenger {
 	 */
 	@Override
 	protected String getMetadataFormat() {
-		return "<serverId> <numServers> <inventory_path>";
+		return "<serverId> <numServers> <inventory_path> [join]";
 	}
 	
 	/**
@@ -130,6 +282,15 @@ public class ServerMessenger extends Messenger {
 		this.timestamp.increment();
 	}
 	
+	/**
+	 * getStats()
+	 * <p>
+	 * returns this server's message counters, for the stats command. <br>
+	 */
+	public String getStats() {
+		return listener.getStats();
+	}
+	
 	/**
 	 * link to this specific server
 	 */
@@ -145,26 +306,60 @@ public class ServerMessenger extends Messenger {
 	}
 	
 	/**
-	 * UDP pings a server. acts as an acknowledgment.
+	 * true if this server holds a prepared multi-paxos ballot. <br>
+	 * the leader may skip phase 1 until another proposer preempts it.
 	 */
-	public void ping(ServerTag tag) throws IOException {
-		String msg = String.format("%s : %s", this.timestamp, "ping"); // ping message.
-		DatagramPacket sendPacket = new DatagramPacket(msg.getBytes(), msg.length());
-		sendPacket.setAddress(tag.getAddress());
-		sendPacket.setPort(tag.getPort());
-		socket.send(sendPacket);
-		incrementClock();
+	public synchronized boolean isLeader() {
+		return leaderNumber != null;
+	}
+	
+	/**
+	 * holdsLease()
+	 * 
+	 * true if this server is the leader, its lease has not run out, and it is caught up. <br>
+	 * Caught up: every value recovered from an earlier leader has been decided.
+	 * The holder may answer reads from memory with no peer messages.
+	 */
+	public synchronized boolean holdsLease() {
+		if (leaderNumber == null || System.currentTimeMillis() >= leaseExpiry || !recovered.isEmpty()) {
+			return false;
+		}
+		for (Round round : rounds.values()) {
+			if (round.recovering) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * milliseconds left on our leader lease. 0 if we hold none. <br>
+	 */
+	public synchronized long getLeaseRemaining() {
+		return (leaderNumber == null) ? 0 : Math.max(0, leaseExpiry - System.currentTimeMillis());
+	}
+	
+	/**
+	 * id of the server that owns the highest ballot this acceptor has seen. <br>
+	 * null if no proposal has been seen yet.
+	 */
+	public synchronized Integer getLeaderId() {
+		return leaderId;
 	}
 	
 	/**
 	 * Send a UDP message to a server.
 	 * messages are tagged with "(pi, ti) : message"
+	 * There is no ping. the paxos reply to a message is its acknowledgement.
 	 */
 	private void sendMessage(Integer serverId, String message) throws IOException {
-		ServerTag serverTag = getServerTag(serverId);
-		socket.setSoTimeout(100); // send a datagram
+		ServerTag serverTag = membership.getTag(serverId);
+		if (serverTag == null) {
+			throw new IOException("unknown server " + serverId);
+		}
 		String string = String.format("%s : %s", this.timestamp, message);
-		DatagramPacket sendPacket = new DatagramPacket(string.getBytes(), string.length());
+		byte[] data = string.getBytes(StandardCharsets.UTF_8);
+		DatagramPacket sendPacket = new DatagramPacket(data, data.length);
 		sendPacket.setAddress(serverTag.getAddress());
 		sendPacket.setPort(serverTag.getUDPPort());
 		System.out.format("Sending %s to %s : %d%n", message, serverTag.getAddress().getHostAddress(), serverTag.getUDPPort()); // debug
@@ -173,24 +368,233 @@ public class ServerMessenger extends Messenger {
 	}
 	
 	/**
-	 * Receive a UDP message from a server. 100ms timeout.
-	 * message of form: "(pi, ti) : message"
+	 * Sends a message to every listed server at once. <br>
 	 *
-	 * @throws IOException
+	 * @return the servers the message could not be sent to.
+	 */
+	private List<Integer> broadcast(Collection<Integer> serverIds, String message) {
+		List<Integer> downedServers = new ArrayList<Integer>();
+		for (Integer id : serverIds) {
+			try { // catch faulty servers.
+				sendMessage(id, message);
+			} catch (IOException e) {
+				downedServers.add(id);
+			}
+		}
+		return downedServers;
+	}
+	
+	/**
+	 * Removes servers that failed to acknowledge a message. <br>
+	 * Never this server: a message to ourselves lost to a full queue does not mean we are down.
+	 */
+	private void removeServers(List<Integer> downedServers) {
+		boolean removed = false;
+		for (Integer id : downedServers) {
+			if (!id.equals(serverId) && tags.remove(id) != null) { // remove inactive server tag. it still counts toward the quorum size.
+				System.err.println("could not establish socket for server " + id);
+				removed = true;
+			}
+		}
+		if (removed) {
+			notifyAll();
+		}
+	}
+	
+	/**
+	 * Blocks until a majority accepts the round's current phase, or a majority is out of reach. <br>
+	 * The majority is of the configuration, not of the servers still up.
+	 * Replies beyond the quorum are not waited for.
+	 * The retransmits are run by the server's timer wheel, not by the waiting thread.
+	 *
+	 * @return true if a majority accepted.
+	 */
+	private boolean awaitQuorum(final Round round) throws InterruptedException {
+		TimerWheel.Timeout retransmit = server.getTimer().repeat(new Runnable() {
+			@Override
+			public void run() {
+				retransmit(round);
+			}
+		}, ServerConfig.RETRANSMIT_TIMEOUT);
+		try {
+			while (!round.failed && round.numAccepts < membership.quorum() && round.numRejects <= membership.size() - membership.quorum()) {
+				wait();
+			}
+		} finally {
+			retransmit.cancel();
+		}
+		return round.numAccepts >= membership.quorum();
+	}
+	
+	/**
+	 * Retransmit timeout of a round: acceptors still silent are sent the phase message again. <br>
+	 * Servers removed as down are asked too, so one that is back is readmitted by its reply.
+	 * After RETRANSMIT_LIMIT silent timeouts they are removed, and the round fails.
+	 */
+	private synchronized void retransmit(Round round) {
+		if (round.failed || round.numAccepts >= membership.quorum()) {
+			return;
+		}
+		
+		// selective retransmission to the acceptors that have not answered.
+		List<Integer> silent = membership.getIds();
+		silent.removeAll(round.replied);
+		round.timeouts += 1;
+		if (round.timeouts > RETRANSMIT_LIMIT) {
+			removeServers(silent);
+			round.failed = true; // nobody left to wait for.
+			notifyAll();
+		} else {
+			removeServers(broadcast(silent, round.message));
+		}
+	}
+	
+	/**
+	 * A server we removed as down is talking again. count it in the quorum again. <br>
+	 */
+	private void readmit(Integer id) {
+		if (!tags.containsKey(id) && membership.contains(id)) {
+			System.out.println("Server " + id + " rejoined.");
+			tags.put(id, membership.getTag(id));
+			notifyAll();
+		}
+	}
+	
+	/**
+	 * rejoin()
+	 * <p>
+	 * Tells every configured server that we are back, once we have caught up. <br>
+	 */
+	public synchronized void rejoin() {
+		List<Integer> serverIds = membership.getIds();
+		serverIds.remove(serverId);
+		broadcast(serverIds, "rejoin");
+	}
+	
+	/**
+	 * ids of every configured server, including ones removed as down. <br>
+	 */
+	public List<Integer> getMemberIds() {
+		return membership.getIds();
+	}
+	
+	/**
+	 * tag of any server ever configured, even one removed since. <br>
+	 */
+	public ServerTag getMemberTag(Integer id) {
+		return membership.getTag(id);
+	}
+	
+	/**
+	 * true if this server votes in the current configuration. <br>
+	 */
+	public boolean isMember() {
+		return membership.contains(serverId);
+	}
+	
+	/**
+	 * true if the server votes in the current configuration. <br>
+	 */
+	public boolean isMember(Integer id) {
+		return membership.contains(id);
+	}
+	
+	/**
+	 * true if a connection from this address may come from a server of the configuration. <br>
+	 */
+	public boolean isMemberAddress(InetAddress address) {
+		for (Integer id : membership.getIds()) {
+			try {
+				if (membership.getTag(id).getAddress().equals(address)) {
+					return true;
+				}
+			} catch (UnknownHostException err) {
+				continue; // a tag that does not resolve matches nobody.
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * true if a command changes the configuration. <br>
+	 * It is proposed alone, and no other slot is proposed while it is in flight.
+	 */
+	public static boolean isReconfiguration(String command) {
+		String opcode = command.trim().toLowerCase();
+		return opcode.startsWith("addserver") || opcode.startsWith("removeserver");
+	}
+	
+	/**
+	 * addMember()
+	 * <p>
+	 * Applies an addserver command from the log. returns the client response. <br>
+	 * Runs on the log's apply thread, so it must not take the messenger lock.
+	 */
+	public String addMember(Integer id, ServerTag tag) {
+		if (tag == null) {
+			throw new IllegalArgumentException("bad server tag");
+		} else if (!membership.add(id, tag)) {
+			return "Server " + id + " is already a member.";
+		}
+		tags.put(id, tag);
+		System.out.format("Server %d joined. configuration %s, quorum %d.%n", id, membership, membership.quorum());
+		return String.format("Server %d added. %d servers, quorum %d.", id, membership.size(), membership.quorum());
+	}
+	
+	/**
+	 * removeMember()
+	 * <p>
+	 * Applies a removeserver command from the log. returns the client response. <br>
+	 * Runs on the log's apply thread, so it must not take the messenger lock.
+	 */
+	public String removeMember(Integer id) {
+		if (!membership.remove(id)) {
+			return "Server " + id + " is not a member, or is the last one.";
+		}
+		tags.remove(id);
+		System.out.format("Server %d left. configuration %s, quorum %d.%n", id, membership, membership.quorum());
+		return String.format("Server %d removed. %d servers, quorum %d.", id, membership.size(), membership.quorum());
+	}
+	
+	/**
+	 * Writes the configuration into a snapshot. <br>
+	 */
+	public void writeMembership(DataOutputStream out) throws IOException {
+		membership.write(out);
+	}
+	
+	/**
+	 * Replaces the configuration with a snapshot's, and brings the live tags in line with it. <br>
+	 */
+	public void readMembership(DataInputStream in) throws IOException {
+		membership.read(in);
+		for (Integer id : new ArrayList<Integer>(tags.keySet())) {
+			if (!membership.contains(id)) {
+				tags.remove(id);
+			}
+		}
+		for (Integer id : membership.getIds()) {
+			if (!tags.containsKey(id)) {
+				tags.put(id, membership.getTag(id));
+			}
+		}
+	}
+	
+	/**
+	 * A peer dropped the slots we asked for: a snapshot covers them. <br>
+	 * Fetch its snapshot, unless we have caught up since.
 	 */
-	private String receiveMessage() throws IOException {
-		// receive the leader acknowledgement.
-		byte[] buffer = new byte[1024];
-		DatagramPacket receivePacket = new DatagramPacket(buffer, buffer.length);
-		socket.receive(receivePacket);
-		return parseMessage(new String(buffer));
+	public void receiveCompacted(Integer senderId, int slot) {
+		if (server.getLog().getApplied() < slot) {
+			server.getStateTransfer().catchUp(senderId);
+		}
 	}
 	
 	/**
 	 * Parses a server-server message.  <br>
 	 * The lamport clock is striped and updated, and the msg is returned.
 	 */
-	public String parseMessage(String message) {
+	public synchronized String parseMessage(String message) {
 		// update my timestamp and return msg.
 		String[] tokens = message.split(" : ", 2);
 		LamportClock clock = LamportClock.parseClock(tokens[0]);
@@ -198,246 +602,556 @@ public class ServerMessenger extends Messenger {
 		Integer otherts = clock.getTimestamp();
 		this.timestamp.setTimestamp(Math.max(myts, otherts) + 1);
 		this.senderId = clock.getProcessId(); // return link
+		readmit(senderId);
 		return (tokens[1]).trim();
 	}
 	
 	/******************* Paxos Algorithm Methods *************************/
 	
-	/** 
+	/**
 	 * Called each time before a command is executed. <br>
-	 * Starts a paxos round. If the proposal fails to propose its own command, retries next round.
-	 * 1) phase 1: propose a preperation.
+	 * Starts a paxos round for the lowest open log slot.
+	 * Up to ServerConfig.PAXOS_WINDOW rounds run at once. each waits for replies to its own slot.
+	 * If the proposal fails to propose its own command, retries next round.
+	 * 1) phase 1: propose a preperation. (skipped by a multi-paxos leader)
 	 * 2) phase 2: propose an accept. (your value or someone else's value).
-	 * 3) value accepted, broadcast learner messages.
+	 * 3) value accepted, broadcast learner messages and decide the slot.
+	 *
+	 * @return the slot our command was chosen for, or -1 if the round must be retried.
 	 */
-	public synchronized boolean proposal(String command) throws InterruptedException {
-		LamportClock number = this.timestamp.copy(); // proposal number
-		boolean original = false; // executed the originally proposed command.
+	public synchronized int proposal(String command) throws InterruptedException {
+		boolean reconfiguration = isReconfiguration(command);
+		while (rounds.size() >= ServerConfig.PAXOS_WINDOW || preparing || reconfiguring || (reconfiguration && !rounds.isEmpty())) {
+			wait(); // window full, a new ballot is being prepared, or the configuration is changing.
+		}
 		
-		// clear quorum for next phase.
-		numRejects = numAccepts = 0;
-		this.proposedNumber = null;
-		this.proposedCommand = null;
+		// reserve the lowest slot that is neither decided nor in flight.
+		CommandLog log = server.getLog();
+		int slot = log.getFirstUndecided();
+		while (rounds.containsKey(slot) || log.getCommand(slot) != null) {
+			slot += 1;
+		}
 		
-		// phase 1: propose a preperation.
-		proposePrepare(number);
-		while ((numAccepts + numRejects) < numServers) {
-			wait();
+		// a membership change runs alone: every slot around it uses one configuration.
+		Round round = new Round(slot);
+		rounds.put(slot, round);
+		reconfiguring = reconfiguration;
+		try {
+			int chosen = propose(round, command);
+			while (reconfiguration && log.getCommand(slot) != null && log.getApplied() <= slot) {
+				wait(10); // the log applies it on its own thread. later slots need the new configuration.
+			}
+			return chosen;
+		} finally {
+			rounds.remove(slot);
+			reconfiguring = false;
+			notifyAll();
 		}
+	}
+	
+	/**
+	 * Runs both paxos phases for a reserved slot. <br>
+	 * wait() releases the monitor, so later slots are proposed while this one collects replies.
+	 */
+	private int propose(Round round, String command) throws InterruptedException {
+		LamportClock number = this.timestamp.copy(); // proposal number
+		boolean original = false; // executed the originally proposed command.
+		boolean prepared = false; // a majority promised our ballot.
+		int slot = round.slot;
 		
-		// select proposal value.
-		if (numAccepts >= ((numServers / 2) + 1)) {
-			if (proposedNumber == null || proposedCommand == null) {
-				this.proposedNumber = number;
-				this.proposedCommand = command;
-				original = true;
-			}
-		} else { // rejected prepare.
-			System.out.println("Proposal prepare was rejected!");
-			return false;
+		if (ServerConfig.MULTI_PAXOS && leaderNumber != null && slot >= leaderSlot) {
+			// stable leader: our ballot is still promised for every slot from leaderSlot on.
+			number = leaderNumber;
+		} else {
+			// phase 1: propose a preperation.
+			preparing = true;
+			try {
+				recovered.clear();
+				round.startPhase("prepare", new ProposalMessage(slot, number).toString());
+				proposePrepare(slot, number);
+				prepared = awaitQuorum(round);
+			} finally {
+				preparing = false;
+			}
+			
+			if (!prepared) { // rejected prepare.
+				System.out.println("Proposal prepare was rejected!");
+				return -1;
+			} else if (ServerConfig.MULTI_PAXOS) {
+				this.leaderNumber = number.copy(); // elected. hold the ballot.
+				this.leaderSlot = slot;
+			}
 		}
 		
-		// clear quorum for next phase.
-		numRejects = numAccepts = 0;
+		// select proposal value. finish a value someone else left behind, under our ballot.
+		Proposal previous = recovered.remove(slot);
+		String value = (previous == null) ? command : previous.getCommand();
+		original = (previous == null);
+		round.recovering = !original;
 		
-		// phase 2: propose an accept.
-		sendAcceptorAccept(proposedNumber, proposedCommand);
-		while ((numAccepts + numRejects) < numServers) {
-			wait();
+		// phase 2: propose an accept. the client's responses are collected even if a learn decides the slot first.
+		if (original) {
+			server.getLog().expect(slot, value);
 		}
+		long sent = System.currentTimeMillis();
+		round.startPhase("accept", new ProposalMessage(slot, number, value).toString());
+		sendAcceptorAccept(slot, number, value);
 		
 		// the accept proposal was rejected.
-		if (numAccepts < ((numServers / 2) + 1)) {
+		if (!awaitQuorum(round)) {
 			System.out.println("Proposal accept was rejected!");
-			return false;
+			if (original) {
+				server.getLog().forget(slot);
+			}
+			if (leaderNumber != null && number.compareTo(leaderNumber) == 0) {
+				this.leaderNumber = null; // preempted. rerun phase 1 next round.
+				this.leaseExpiry = 0;
+			}
+			return -1;
 		}
 		
-		// value accepted. notify the learners (NOTE: shouldn't we be printing out 'acceptedCommand'?)
-		System.out.format("Executing proposal %s: [%s]. original? %s%n", proposedNumber, proposedCommand, original ? "yes" : "no");
-		
-		// send to all other but yourself. 
-		sendLearnedValue(proposedNumber, proposedCommand);
+		// a majority granted our lease when they accepted. leave a margin for clock drift.
+		if (LEASES && leaderNumber != null && number.compareTo(leaderNumber) == 0) {
+			long lease = ServerConfig.LEASE_TIMEOUT - (ServerConfig.LEASE_TIMEOUT / 10);
+			leaseExpiry = Math.max(leaseExpiry, sent + lease);
+		}
 		
-		// clear quorum for next phase.
-		numRejects = numAccepts = 0;
-		this.proposedNumber = null;
-		this.proposedCommand = null;
-		return original;
+		// value accepted. notify the learners and decide the slot locally.
+		System.out.format("Executing proposal %s in slot %d: [%s]. original? %s%n", number, slot, value, original ? "yes" : "no");
+		sendLearnedValue(slot, number, value); // send to all other but yourself.
+		receiveLearnedValue(slot, value);
+		return original ? slot : -1;
 	}
 	
 	/**
 	 * Phase 1, prepare the proposal.
-	 * Send the proposal number (lamport timestamp) to all the acceptors.
+	 * Send the proposal number (lamport timestamp) to all the acceptors at once.
+	 * The prepare covers the given slot and every slot after it.
 	 * Acceptor quorum must consist of a majority.
 	 */
-	public synchronized void proposePrepare(LamportClock number) {
-		// send to all other servers receiving ports
-		List<Integer> downedServers = new ArrayList<Integer>();
-		for (Integer id : tags.keySet()) {
-			System.out.println("DEBUG: Leader sending proposal to server " + id);
-			try { // catch faulty servers.
-				sendMessage(id, new ProposalMessage(number).toString());
-				String ping = receiveMessage();
-				// System.out.format("%s from %d.%n", ping, id);
-			} catch (IOException e) {
-				System.err.println("could not establish socket for server " + id);
-				downedServers.add(id); // remove inactive server tag.
-				numServers = numServers - 1;
-				notifyAll();
-			}
-		}
-		
-		// remove faulty servers.
-		for (Integer id : downedServers) {
-			tags.remove(id);
-		}
+	public synchronized void proposePrepare(int slot, LamportClock number) {
+		// send to all other servers receiving ports at once.
+		System.out.println("DEBUG: Leader sending proposal to servers " + tags.keySet());
+		List<Integer> serverIds = new ArrayList<Integer>(tags.keySet());
+		removeServers(broadcast(serverIds, new ProposalMessage(slot, number).toString()));
 	}
 	
 	/**
 	 * Phase 1, receive a prepare
 	 * If the proposal number is less than promised value, reject it!
 	 * Otherwise, promise it to accept only above the proposal number.
-	 * Send the most recent acceptedNumber and acceptedCommand this round. null otherwise.
+	 * Send every proposal accepted at or after the prepared slot, paged to fit the datagrams.
+	 * A proposer that prepares an already applied slot is sent the decisions it missed, then rejected.
+	 * Under lease reads, prepares from anyone but the leader are rejected while its lease lasts.
 	 *
 	 * @throws IOException
 	 */
-	public synchronized void receiveProposerPrepare(Integer senderId, LamportClock number) {
+	public void receiveProposerPrepare(Integer senderId, int slot, LamportClock number) {
 		System.out.println("DEBUG: Acceptor receiving proposal from server " + senderId);
-		try { // catch faulty servers.
-			if (number.compareTo(promisedNumber) > 0) { // accept the prepare proposal.
+		CommandLog log = server.getLog();
+		String reply = null;
+		List<AcceptorMessage> promise = null; // pages of the promise, if we make one.
+		long sequence = 0; // journal record the reply depends on.
+		synchronized (this) {
+			if (slot < log.getApplied()) { // the proposer is behind. fast-forward it.
+				for (int missed = slot; missed < log.getApplied() && missed < slot + CATCHUP_LIMIT; missed++) {
+					String command = log.getCommand(missed);
+					if (command == null) { // dropped by a snapshot. the proposer must fetch it.
+						reply(senderId, "compacted " + log.getSnapshotSlot(), 0);
+						break;
+					}
+					reply(senderId, new LearnerMessage(missed, command).toString(), 0);
+				}
+				reply = new AcceptorMessage(slot, "prepare").toString();
+			} else if (!membership.contains(number.getProcessId())) {
+				System.out.format("Refusing prepare from %d. not a member.%n", number.getProcessId());
+				reply = new AcceptorMessage(slot, "prepare").toString();
+			} else if (LEASES && leaseHolder != null && !leaseHolder.equals(number.getProcessId()) && System.currentTimeMillis() < leaseGranted) {
+				System.out.format("Refusing prepare from %d. leader %d holds a lease.%n", number.getProcessId(), leaseHolder);
+				reply = new AcceptorMessage(slot, "prepare").toString();
+			} else if (number.compareTo(promisedNumber) >= 0) { // accept the prepare proposal. (equal: a retransmit)
 				promisedNumber = number.copy();
+				followLeader(number);
 				System.out.println("promised number: " + number);
-				sendMessage(senderId, new AcceptorMessage(acceptedNumber, acceptedCommand, "accept").toString());
-				String ping = receiveMessage();
+				sequence = journal("promise " + number.getTimestamp() + " " + number.getProcessId());
+				promise = AcceptorMessage.promise(slot, nextPromise++, accepted.tailMap(slot).values(), PAGE_SIZE);
 			} else { // reject the proposal
-				sendMessage(senderId, new AcceptorMessage().toString());
-				String ping = receiveMessage();
+				reply = new AcceptorMessage(slot, "prepare").toString();
 			}
-			
-		} catch (IOException e) {
-			System.err.println("could not establish socket for server " + senderId);
-			tags.remove(senderId); // remove inactive server tag.
-			numServers = numServers - 1;
-			notifyAll();
+		}
+		if (promise == null) {
+			reply(senderId, reply, sequence);
+		} else { // as many datagrams as the accepted slots take.
+			for (AcceptorMessage page : promise) {
+				reply(senderId, page.toString(), sequence);
+			}
+		}
+	}
+	
+	/**
+	 * Acceptor records the owner of the highest ballot as the leader. <br>
+	 * A higher ballot from someone else ends our own leadership.
+	 */
+	private void followLeader(LamportClock number) {
+		leaderId = number.getProcessId();
+		if (leaderNumber != null && number.compareTo(leaderNumber) > 0) {
+			System.out.println("Preempted by leader " + leaderId);
+			leaderNumber = null;
+			leaseExpiry = 0;
 		}
 	}
 	
-	/** 
+	/**
 	 * Proposal learns its prepare OR accept proposal was rejected. <br>
 	 */
-	public synchronized void receiveAcceptorReject() {
-		System.out.format("received acceptor reject!%n");
-		numRejects += 1;
-		notifyAll();
+	public synchronized void receiveAcceptorReject(Integer senderId, int slot, String phase) {
+		System.out.format("received acceptor reject for slot %d!%n", slot);
+		Round round = rounds.get(slot);
+		if (round != null && membership.contains(senderId) && round.reply(phase, senderId)) {
+			round.numRejects += 1;
+			notifyAll();
+		}
 	}
 	
-	/** 
+	/**
 	 * Proposer learns its prepare proposal was accepted. <br>
+	 * Keeps the highest numbered proposal the acceptors report for each slot.
+	 * A promise counts once all its pages are in: a missing page may hold a value already chosen.
 	 */
-	public synchronized void receiveAcceptorAccept(LamportClock number, String command) {
-		System.out.format("received acceptor prepare: %s [%s]%n", number, command);
-		if (number != null && command != null) {
-			if (number.compareTo(proposedNumber) > 0) {
-				proposedNumber = number.copy();
-				proposedCommand = command;
+	public synchronized void receiveAcceptorAccept(Integer senderId, int slot, AcceptorMessage page) {
+		System.out.format("received acceptor prepare for slot %d, page %d/%d: %s%n", slot, page.getPage(), page.getPages(), page.getProposals());
+		Round round = rounds.get(slot);
+		if (round == null || !membership.contains(senderId) || !round.page(senderId, page.getReply(), page.getPage())) {
+			return; // stale or duplicate reply, or not a voter.
+		}
+		for (Proposal proposal : page.getProposals()) {
+			Proposal previous = recovered.get(proposal.getSlot());
+			if (previous == null || proposal.getNumber().compareTo(previous.getNumber()) > 0) {
+				recovered.put(proposal.getSlot(), proposal);
 			}
 		}
 		
 		// acknowledge proposal
-		numAccepts += 1;
-		notifyAll();
+		if (round.whole(senderId, page.getPages()) && round.reply("prepare", senderId)) {
+			round.numAccepts += 1;
+			notifyAll();
+		}
 	}
 	
 	/**
 	 * Phase 2, propose a value.
-	 * Send the proposal number (lamport timestamp) to all the acceptors.
+	 * Send the proposal number (lamport timestamp) to all the acceptors at once.
 	 * Acceptor quorum must consist of a majority.
 	 */
-	public synchronized void sendAcceptorAccept(LamportClock number, String command) {
-		List<Integer> downedServers = new ArrayList<Integer>();
-		for (Integer id : tags.keySet()) {
+	public synchronized void sendAcceptorAccept(int slot, LamportClock number, String command) {
+		List<Integer> serverIds = new ArrayList<Integer>(tags.keySet());
+		removeServers(broadcast(serverIds, new ProposalMessage(slot, number, command).toString()));
+	}
+	
+	/**
+	 * Phase 2, Acceptor receives a proposal for an accept. <br>
+	 * Accepts if the number is at least the promised number and the slot is still open.
+	 */
+	public void receiveProposerAccept(Integer senderId, int slot, LamportClock number, String command) {
+		String reply;
+		long sequence = 0; // journal record the reply depends on.
+		synchronized (this) {
+			if (slot >= server.getLog().getApplied() && number.compareTo(promisedNumber) >= 0 && membership.contains(number.getProcessId())) {
+				promisedNumber = number.copy();
+				followLeader(number);
+				Proposal proposal = new Proposal(slot, number.copy(), command);
+				accepted.put(slot, proposal);
+				if (LEASES) { // grant the leader its lease.
+					leaseHolder = number.getProcessId();
+					leaseGranted = System.currentTimeMillis() + ServerConfig.LEASE_TIMEOUT;
+				}
+				sequence = journal("accept " + slot + " " + number.getTimestamp() + " " + number.getProcessId() + " " + command);
+				reply = new AcceptorMessage(slot, Collections.singletonList(proposal), "choose").toString();
+			} else { // reject the proposal
+				reply = new AcceptorMessage(slot, "accept").toString();
+			}
+		}
+		reply(senderId, reply, sequence);
+	}
+	
+	/**
+	 * Queues an acceptor state change for the acceptor journal. <br>
+	 * returns its sequence number, or 0 if acceptor state is kept in memory only.
+	 */
+	private long journal(String record) {
+		return (journal == null) ? 0 : journal.append(record);
+	}
+	
+	/**
+	 * Sends an acceptor reply once the state it reports is on disk. <br>
+	 * The wait happens outside the messenger, so concurrent prepares and accepts
+	 * pile into the same group commit and share one fsync.
+	 */
+	private void reply(Integer senderId, String message, long sequence) {
+		try {
+			if (sequence > 0) {
+				journal.await(sequence);
+			}
+		} catch (InterruptedException | IOException e) { // never send a promise a restart could forget.
+			System.err.println("acceptor state is not on disk. no reply to server " + senderId + ": " + e);
+			return;
+		}
+		
+		synchronized (this) {
 			try { // catch faulty servers.
-				sendMessage(id, new ProposalMessage(number, command).toString());
-				String ping = receiveMessage();
-				// System.out.format("%s from %d.%n", ping, id);
+				sendMessage(senderId, message);
 			} catch (IOException e) {
-				System.err.println("could not establish socket for server " + id);
-				downedServers.add(id); // remove inactive server tag.
-				numServers = numServers - 1;
-				notifyAll();
+				removeServers(Collections.singletonList(senderId));
 			}
 		}
-		
-		// remove faulty servers.
-		for (Integer id : downedServers) {
-			tags.remove(id);
+	}
+	
+	/**
+	 * compactJournal()
+	 * <p>
+	 * Rewrites the acceptor journal as our current promise and the proposals still undecided. <br>
+	 * Called after a snapshot, once the records of applied slots are no longer needed.
+	 */
+	public synchronized void compactJournal() throws IOException, InterruptedException {
+		if (journal == null) {
+			return;
+		}
+		List<String> records = new ArrayList<String>();
+		records.add("promise " + promisedNumber.getTimestamp() + " " + promisedNumber.getProcessId());
+		for (Proposal proposal : accepted.tailMap(server.getLog().getApplied()).values()) {
+			LamportClock number = proposal.getNumber();
+			records.add("accept " + proposal.getSlot() + " " + number.getTimestamp() + " " + number.getProcessId() + " " + proposal.getCommand());
 		}
+		journal.truncate(records);
 	}
 	
-	/** 
-	 * Phase 2, Acceptor receives a proposal for an accept. <br>
-	 * [logic]
+	/**
+	 * recover()
+	 * <p>
+	 * Restores the promises and accepted proposals an earlier run journaled, <br>
+	 * then journals every new one. Must be called after the command log is recovered.
+	 * Under lease reads, the last leader we promised is granted a fresh lease: a lease we gave
+	 * before the restart may still be running.
 	 */
-	public synchronized void receiveProposerAccept(Integer senderId, LamportClock number, String command) {
-		try {// catch faulty servers.
-			if (number.compareTo(promisedNumber) >= 0) {
-				promisedNumber = number.copy();
-				acceptedNumber = number.copy();
-				acceptedCommand = command;
-				AcceptorMessage message = new AcceptorMessage(acceptedNumber, acceptedCommand, "choose");
-				sendMessage(senderId, message.toString());
-				String ping = receiveMessage();
-			} else { // reject the proposal
-				sendMessage(senderId, new AcceptorMessage().toString());
-				String ping = receiveMessage();
+	public void recover(Journal journal) throws IOException {
+		int applied = server.getLog().getApplied();
+		synchronized (this) {
+			for (String record : journal.replay()) {
+				String[] fields = record.split(" ", 5);
+				if (fields[0].equals("promise") && fields.length == 3) {
+					LamportClock number = new LamportClock(Integer.parseInt(fields[1]), Integer.parseInt(fields[2]));
+					promisedNumber = (number.compareTo(promisedNumber) > 0) ? number : promisedNumber;
+				} else if (fields[0].equals("accept") && fields.length == 5) {
+					int slot = Integer.parseInt(fields[1]);
+					LamportClock number = new LamportClock(Integer.parseInt(fields[2]), Integer.parseInt(fields[3]));
+					promisedNumber = (number.compareTo(promisedNumber) > 0) ? number : promisedNumber;
+					Proposal previous = accepted.get(slot);
+					if (slot >= applied && (previous == null || number.compareTo(previous.getNumber()) >= 0)) {
+						accepted.put(slot, new Proposal(slot, number, fields[4]));
+					}
+				}
 			}
-		} catch (IOException e) {
-			System.err.println("could not establish socket for server " + senderId);
-			tags.remove(senderId); // remove inactive server tag.
-			numServers = numServers - 1;
-			notifyAll();
+			if (promisedNumber.getTimestamp() > 0 || promisedNumber.getProcessId() > 0) {
+				leaderId = promisedNumber.getProcessId();
+				if (LEASES) {
+					leaseHolder = leaderId;
+					leaseGranted = System.currentTimeMillis() + ServerConfig.LEASE_TIMEOUT;
+				}
+			}
+			System.out.format("Recovered acceptor state: promised %s, %d accepted slots.%n", promisedNumber, accepted.size());
+			this.journal = journal;
 		}
+		journal.start();
 	}
 	
-	/** 
+	/**
 	 * Proposer learns that the acceptor has chosen its value. <br>
 	 */
 	
-	public synchronized void receiveAcceptorChoose(LamportClock number, String command) {
-		numAccepts += 1;
-		notifyAll();
+	public synchronized void receiveAcceptorChoose(Integer senderId, int slot, List<Proposal> proposals) {
+		Round round = rounds.get(slot);
+		if (round != null && membership.contains(senderId) && round.reply("accept", senderId)) {
+			round.numAccepts += 1;
+			notifyAll();
+		}
 	}
 	
-	/** 
+	/**
 	 * Learner learns the value that was chosen.  <br>
-	 * Execute the command and advance the Paxos round.
+	 * Broadcast the decided slot to every other server at once.
 	 */
-	public synchronized void sendLearnedValue(LamportClock number, String command) {
+	public synchronized void sendLearnedValue(int slot, LamportClock number, String command) {
 		// send final command for execution to all but myself
-		List<Integer> downedServers = new ArrayList<Integer>();
-		for (Integer id : tags.keySet()) {
-			if (id != serverId) {
-				try { // catch faulty servers.
-					sendMessage(id, new LearnerMessage(command).toString());
-					String ping = receiveMessage();
+		List<Integer> serverIds = new ArrayList<Integer>(tags.keySet());
+		serverIds.remove(serverId);
+		removeServers(broadcast(serverIds, new LearnerMessage(slot, command).toString()));
+	}
+	
+	/**
+	 * Learner decides the slot in the replicated log. <br>
+	 * The log executes chosen commands in slot order.
+	 * Accepted proposals for applied slots are no longer needed.
+	 */
+	public synchronized void receiveLearnedValue(int slot, String command) {
+		System.out.format("Learned that the value of slot %d was: [%s]%n", slot, command);
+		CommandLog log = server.getLog();
+		log.decide(slot, command);
+		accepted.headMap(log.getApplied()).clear();
+		recovered.headMap(log.getApplied()).clear();
+		relearning.headMap(log.getApplied()).clear();
+		relearning.remove(slot);
+	}
+	
+	/**
+	 * Learner receives a decision from a peer. <br>
+	 * Learn messages are not acknowledged. A learn past a gap in the log means earlier ones were lost,
+	 * so the missing slots are requested again from the sender.
+	 */
+	public synchronized void receiveLearnedValue(Integer senderId, int slot, String command) {
+		receiveLearnedValue(slot, command);
+		
+		CommandLog log = server.getLog();
+		long now = System.currentTimeMillis();
+		int requested = 0;
+		for (int missing = log.getFirstUndecided(); missing < slot && requested < CATCHUP_LIMIT; missing++) {
+			Long asked = relearning.get(missing);
+			if (log.getCommand(missing) == null && (asked == null || now - asked > ServerConfig.RETRANSMIT_TIMEOUT)) {
+				try {
+					sendMessage(senderId, "relearn " + missing);
+					relearning.put(missing, now);
+					requested += 1;
 				} catch (IOException e) {
-					System.err.println("could not establish socket for server " + id);
-					downedServers.add(id); // remove inactive server tag.
-					numServers = numServers - 1;
-					notifyAll();
+					System.err.println("could not request slot " + missing + " from server " + senderId);
 				}
 			}
 		}
+	}
+	
+	/**
+	 * A peer missed the decision of a slot. resend it if we know it. <br>
+	 */
+	public synchronized void receiveRelearn(Integer senderId, int slot) {
+		CommandLog log = server.getLog();
+		String command = log.getCommand(slot);
+		try {
+			if (command != null) {
+				sendMessage(senderId, new LearnerMessage(slot, command).toString());
+			} else if (slot < log.getSnapshotSlot()) { // dropped by a snapshot. the learner must fetch it.
+				sendMessage(senderId, "compacted " + log.getSnapshotSlot());
+			}
+		} catch (IOException e) {
+			System.err.println("could not resend slot " + slot + " to server " + senderId);
+		}
+	}
+	
+	/**
+	 * readIndex()
+	 * <p>
+	 * Asks a majority for the highest slot each has accepted or decided. <br>
+	 * Once the local log has applied that slot, a read reflects every write acknowledged before it.
+	 * Nothing is written to the log.
+	 *
+	 * The client session waits outside the messenger monitor, so a virtual thread does not pin its carrier.
+	 *
+	 * @return the read index, or -1 if a majority did not answer.
+	 */
+	public int readIndex() throws InterruptedException {
+		final ReadIndex read;
+		synchronized (this) {
+			read = new ReadIndex(nextRead++, getCommitBound());
+			if (membership.contains(serverId)) {
+				read.replied.add(serverId); // we count toward the majority.
+			}
+			reads.put(read.id, read);
+			List<Integer> others = new ArrayList<Integer>(tags.keySet());
+			others.remove(serverId);
+			removeServers(broadcast(others, read.message));
+		}
 		
-		// remove faulty servers.
-		for (Integer id : downedServers) {
-			tags.remove(id);
+		TimerWheel.Timeout retransmit = server.getTimer().repeat(new Runnable() {
+			@Override
+			public void run() {
+				retransmit(read);
+			}
+		}, ServerConfig.RETRANSMIT_TIMEOUT);
+		readLock.lock();
+		try {
+			while (!read.failed && read.replied.size() < membership.quorum()) {
+				readReplied.await();
+			}
+			return (read.replied.size() >= membership.quorum()) ? read.index : -1;
+		} finally {
+			readLock.unlock();
+			retransmit.cancel();
+			synchronized (this) {
+				reads.remove(read.id);
+			}
+		}
+	}
+	
+	/**
+	 * Retransmit timeout of a quorum read: servers still silent are asked again, removed ones included. <br>
+	 * After RETRANSMIT_LIMIT silent timeouts the read fails.
+	 * readLock is released before the messenger is locked, the order receiveReadIndex() takes them in.
+	 */
+	private void retransmit(ReadIndex read) {
+		List<Integer> silent;
+		readLock.lock();
+		try {
+			if (read.replied.size() >= membership.quorum()) {
+				return;
+			}
+			read.timeouts += 1;
+			if (read.timeouts > RETRANSMIT_LIMIT) {
+				read.failed = true;
+				readReplied.signalAll();
+				return;
+			}
+			silent = membership.getIds();
+			silent.removeAll(read.replied);
+		} finally {
+			readLock.unlock();
+		}
+		synchronized (this) {
+			removeServers(broadcast(silent, read.message));
+		}
+	}
+	
+	/**
+	 * highest slot this server has accepted or decided. <br>
+	 */
+	private int getCommitBound() {
+		int bound = server.getLog().getLastDecided();
+		return accepted.isEmpty() ? bound : Math.max(bound, accepted.lastKey());
+	}
+	
+	/**
+	 * A peer is serving a quorum read. report how far our log reaches. <br>
+	 */
+	public synchronized void receiveReadIndex(Integer senderId, int id) {
+		try {
+			sendMessage(senderId, "readindex " + id + " " + getCommitBound());
+		} catch (IOException e) {
+			System.err.println("could not answer read index " + id + " of server " + senderId);
 		}
 	}
 	
-	public synchronized void receiveLearnedValue(String command) {
-		System.out.format("Learned that the value was: [%s]%n", command);
-		this.acceptedCommand = null;
-		this.acceptedNumber = null;
+	/**
+	 * A peer reported how far its log reaches for one of our quorum reads. <br>
+	 */
+	public synchronized void receiveReadIndex(Integer senderId, int id, int bound) {
+		ReadIndex read = reads.get(id);
+		if (read == null || !membership.contains(senderId)) {
+			return;
+		}
+		readLock.lock();
+		try {
+			if (read.replied.add(senderId)) {
+				read.index = Math.max(read.index, bound);
+				readReplied.signalAll();
+			}
+		} finally {
+			readLock.unlock();
+		}
 	}
 }
@@ -1,9 +1,18 @@
-
 package model;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 /** AcceptorMessage
  * Acceptor messages for the paxos algorithm.
  * Contains message replies for an acceptor. accept and reject requests.
+ * A promise too long for one datagram is sent in pages. Each page carries the id of the reply
+ * it belongs to, its page number and page count, and the number of entries on it,
+ * so a page cut short in transit is rejected instead of read as a shorter promise.
  * 
  * By: Gaurav Nagar, Hari Kosuru, 
  * Taylor Schmidt, and Ronald Macmaster.
@@ -12,57 +21,173 @@ package model;
  */
 public class AcceptorMessage {
 	
-	// proposal number
-	private LamportClock number;
+	private static final Pattern HEADER = Pattern.compile("acceptor (accept|choose|reject) (\\d+)(?: (prepare|accept))?(?: (\\d+):(\\d+)/(\\d+) (\\d+))?");
+	private static final Pattern ENTRY = Pattern.compile("\\{(\\d+) \\[(.*?)\\] (\\(\\d+, \\d+\\))\\}");
+	
+	// log slot the reply is for
+	private int slot;
 	
-	// server transaction
-	private String command;
+	// previously accepted proposals (prepare reply) or the chosen proposal (accept reply)
+	private List<Proposal> proposals;
 	
 	// accept, choose, or reject
 	private String type;
 	
+	// proposer phase a reject answers: prepare or accept
+	private String phase;
+	
+	// paging of a promise: the reply the page belongs to, page number (from 1) and page count.
+	private long reply = 0;
+	private int page = 1, pages = 1;
+	
 	/** AcceptorMessage() <br>
 	 * 
 	 * Constructs a new Acceptor Message. <br>
-	 * proposes an accept .
-	 * @param clock lamport timestamp functions as proposal number.
-	 * @param command server transaction functions as proposal value.
+	 * replies to a prepare (accept) or an accept (choose).
+	 * @param slot log slot of the proposal being answered.
+	 * @param proposals accepted proposals reported back to the proposer.
+	 * @param type accept or choose.
 	 */
-	public AcceptorMessage(LamportClock clock, String command, String type) {
-		this.number = clock;
-		this.command = command;
+	public AcceptorMessage(int slot, Collection<Proposal> proposals, String type) {
+		this.slot = slot;
+		this.proposals = new ArrayList<Proposal>(proposals);
 		this.type = type;
+		this.phase = type.equals("accept") ? "prepare" : "accept";
+	}
+	
+	/** AcceptorMessage() <br>
+	 * 
+	 * Constructs a new Acceptor Message. <br>
+	 * one page of a promise (accept).
+	 */
+	private AcceptorMessage(int slot, Collection<Proposal> proposals, String type, long reply, int page, int pages) {
+		this(slot, proposals, type);
+		this.reply = reply;
+		this.page = page;
+		this.pages = pages;
 	}
 	
 	/** AcceptorMessage() <br>
 	 * 
-	 * Constructs a new Proposal Message. <br>
+	 * Constructs a new Acceptor Message. <br>
 	 * proposes a reject.
+	 * @param phase the proposer phase being rejected. prepare or accept.
 	 */
-	public AcceptorMessage() {
+	public AcceptorMessage(int slot, String phase) {
+		this.slot = slot;
+		this.proposals = new ArrayList<Proposal>();
 		this.type = "reject";
+		this.phase = phase;
 	}
-
 	
-	public LamportClock getNumber() {
-		return number;
+	/**
+	 * promise()
+	 * 
+	 * Splits a promise into pages of at most limit bytes of entries each. <br>
+	 * A single entry longer than limit gets a page of its own. An empty promise is one page.
+	 * @param reply id shared by the pages of this reply, so pages of different replies are never mixed.
+	 */
+	public static List<AcceptorMessage> promise(int slot, long reply, Collection<Proposal> proposals, int limit) {
+		List<List<Proposal>> entries = new ArrayList<List<Proposal>>();
+		List<Proposal> page = new ArrayList<Proposal>();
+		int size = 0;
+		for (Proposal proposal : proposals) {
+			int length = proposal.toString().getBytes(StandardCharsets.UTF_8).length + 1;
+			if (!page.isEmpty() && size + length > limit) {
+				entries.add(page);
+				page = new ArrayList<Proposal>();
+				size = 0;
+			}
+			page.add(proposal);
+			size += length;
+		}
+		entries.add(page);
+		
+		List<AcceptorMessage> messages = new ArrayList<AcceptorMessage>();
+		for (int idx = 0; idx < entries.size(); idx++) {
+			messages.add(new AcceptorMessage(slot, entries.get(idx), "accept", reply, idx + 1, entries.size()));
+		}
+		return messages;
 	}
 	
-	public String getCommand() {
-		return command;
+	/**
+	 * parse()
+	 * 
+	 * Factory method to rebuild an acceptor message from its string form. <br>
+	 * Returns null upon failure, or if it holds fewer entries than its header counts.
+	 */
+	public static AcceptorMessage parse(String message) {
+		Matcher matcher = HEADER.matcher(message);
+		if (!matcher.find()) {
+			return null;
+		}
+		String type = matcher.group(1);
+		int slot = Integer.parseInt(matcher.group(2));
+		if (type.equals("reject")) {
+			return new AcceptorMessage(slot, matcher.group(3) == null ? "prepare" : matcher.group(3));
+		}
+		
+		if (matcher.group(4) == null) {
+			return null;
+		}
+		long reply = Long.parseLong(matcher.group(4));
+		int page = Integer.parseInt(matcher.group(5));
+		int pages = Integer.parseInt(matcher.group(6));
+		int count = Integer.parseInt(matcher.group(7));
+		
+		List<Proposal> proposals = new ArrayList<Proposal>();
+		matcher = ENTRY.matcher(message);
+		while (matcher.find()) {
+			int entrySlot = Integer.parseInt(matcher.group(1));
+			LamportClock number = LamportClock.parseClock(matcher.group(3));
+			proposals.add(new Proposal(entrySlot, number, matcher.group(2)));
+		}
+		if (proposals.size() != count) { // cut short.
+			return null;
+		}
+		return new AcceptorMessage(slot, proposals, type, reply, page, pages);
+	}
+	
+	public int getSlot() {
+		return slot;
+	}
+	
+	public List<Proposal> getProposals() {
+		return proposals;
 	}
 	
 	public String getType() {
 		return type;
 	}
 	
+	public String getPhase() {
+		return phase;
+	}
+	
+	public long getReply() {
+		return reply;
+	}
+	
+	public int getPage() {
+		return page;
+	}
+	
+	public int getPages() {
+		return pages;
+	}
+	
 	
 	@Override
 	public String toString() {
 		if(type.equals("reject")){
-			return String.format("acceptor reject");
+			return String.format("acceptor reject %d %s", slot, phase);
 		} else if(type.equals("accept") || type.equals("choose")){
-			return String.format("acceptor %s [%s] %s", type, command, number);			
+			StringBuilder builder = new StringBuilder();
+			builder.append(String.format("acceptor %s %d %d:%d/%d %d", type, slot, reply, page, pages, proposals.size()));
+			for (Proposal proposal : proposals) {
+				builder.append(" ").append(proposal);
+			}
+			return builder.toString();
 		} else { // bad proposal message.
 			return null;
 		}
@@ -0,0 +1,173 @@
+package model;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/** Frame
+ * One message of the framed client protocol.
+ * A client opens it by sending the line "framed" and waiting for the line "framed" back.
+ * From then on both sides send frames: <br>
+ * <b>format</b>: <length:int> <type:byte> <id:int> <payload:utf-8> <br>
+ * length counts the bytes after it. A command and its response carry the same id,
+ * so a client pipelines commands and matches the responses in any order.
+ * Keep-alive pings are frames of their own, with id 0 and no payload.
+ *
+ * By: Gaurav Nagar, Hari Kosuru,
+ * Taylor Schmidt, and Ronald Macmaster.
+ * UT-EIDs: gn3544, hk8633, trs2277,  rpm953
+ * Date: 4/30/2017
+ */
+public class Frame {
+
+	// line that switches a text session to frames.
+	public static final String HANDSHAKE = "framed";
+
+	// frame types.
+	public static final byte COMMAND = 'C';
+	public static final byte RESPONSE = 'R';
+	public static final byte PING = 'P';
+
+	// longest frame accepted, after the length field.
+	public static final int MAX_LENGTH = 16 * 1024 * 1024;
+
+	// longest command frame a server accepts. the same bound as a command line.
+	public static final int MAX_COMMAND = 64 * 1024;
+
+	// type and id.
+	private static final int HEADER = 5;
+
+	private byte type;
+	private int id;
+	private String payload;
+
+	/** Frame
+	 *
+	 * Constructs a new Frame object. <br>
+	 */
+	public Frame(byte type, int id, String payload) {
+		this.type = type;
+		this.id = id;
+		this.payload = (payload == null) ? "" : payload;
+	}
+
+	/**
+	 * ping()
+	 *
+	 * returns a keep-alive frame. <br>
+	 */
+	public static Frame ping() {
+		return new Frame(PING, 0, "");
+	}
+
+	/**
+	 * length()
+	 *
+	 * returns the frame's length field: the bytes after it. <br>
+	 */
+	public int length() {
+		return HEADER + payload.getBytes(StandardCharsets.UTF_8).length;
+	}
+
+	/**
+	 * toBytes()
+	 *
+	 * returns the frame as sent, length prefix first. <br>
+	 */
+	public byte[] toBytes() {
+		byte[] data = payload.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer frame = ByteBuffer.allocate(4 + HEADER + data.length);
+		frame.putInt(HEADER + data.length).put(type).putInt(id).put(data);
+		return frame.array();
+	}
+
+	/**
+	 * read()
+	 *
+	 * Reads the next frame off a stream. <br>
+	 * returns null if the stream ends between frames.
+	 */
+	public static Frame read(DataInputStream in) throws IOException {
+		return read(in, MAX_LENGTH);
+	}
+
+	/**
+	 * read()
+	 *
+	 * Reads the next frame off a stream, refusing frames longer than max. <br>
+	 * returns null if the stream ends between frames.
+	 */
+	public static Frame read(DataInputStream in, int max) throws IOException {
+		int length;
+		try {
+			length = in.readInt();
+		} catch (EOFException err) {
+			return null;
+		}
+		checkLength(length, max);
+		byte type = in.readByte();
+		int id = in.readInt();
+		byte[] data = new byte[length - HEADER];
+		in.readFully(data);
+		return new Frame(type, id, new String(data, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * read()
+	 *
+	 * Takes the next frame out of a buffer being filled from a channel, refusing frames longer than max. <br>
+	 * returns null, and leaves the buffer as it was, if the frame has not fully arrived.
+	 * The length is checked first, so the buffer never has to grow past max for one frame.
+	 */
+	public static Frame read(ByteBuffer buffer, int max) throws IOException {
+		if (buffer.remaining() < 4) {
+			return null;
+		}
+		int length = buffer.getInt(buffer.position());
+		checkLength(length, max);
+		if (buffer.remaining() < 4 + length) {
+			return null;
+		}
+		buffer.getInt();
+		byte type = buffer.get();
+		int id = buffer.getInt();
+		byte[] data = new byte[length - HEADER];
+		buffer.get(data);
+		return new Frame(type, id, new String(data, StandardCharsets.UTF_8));
+	}
+
+	private static void checkLength(int length, int max) throws IOException {
+		if (length < HEADER || length > max) {
+			throw new IOException("bad frame length " + length);
+		}
+	}
+
+	/**
+	 * @return the frame type
+	 */
+	public byte getType() {
+		return type;
+	}
+
+	/**
+	 * @return the request id
+	 */
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * @return the command or response text
+	 */
+	public String getPayload() {
+		return payload;
+	}
+
+	@Override
+	public String toString() {
+		return (char) type + " " + id + " : " + payload;
+	}
+
+}
@@ -1,6 +1,8 @@
-
 package model;
 
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 /** LearnerMessage
  * Learner messages for the paxos algorithm.
  * Contains message data for learning a value.
@@ -12,17 +14,42 @@ package model;
  */
 public class LearnerMessage {
 	
+	private static final Pattern LEARN = Pattern.compile("learn (\\d+) \\[(.*?)\\]");
+	
+	// log slot
+	private int slot;
+	
 	// server transaction
 	private String command;
 	
 	/** LearnerMessage() <br>
 	 * 
 	 * Constructs a new Learner Message. <br>
+	 * @param slot log slot the command was chosen for.
 	 * @param command server transaction functions as proposal value.
 	 */
-	public LearnerMessage(String command) {
+	public LearnerMessage(int slot, String command) {
+		this.slot = slot;
 		this.command = command;
 	}
+	
+	/**
+	 * parse()
+	 * 
+	 * Factory method to rebuild a learner message from its string form. <br>
+	 * Returns null upon failure.
+	 */
+	public static LearnerMessage parse(String message) {
+		Matcher matcher = LEARN.matcher(message);
+		if (matcher.find()) {
+			return new LearnerMessage(Integer.parseInt(matcher.group(1)), matcher.group(2));
+		}
+		return null;
+	}
+	
+	public int getSlot() {
+		return slot;
+	}
 
 	public String getCommand() {
 		return command;
@@ -30,7 +57,7 @@ public class LearnerMessage {
 	
 	@Override
 	public String toString() {
-		return String.format("learn [%s]", command);
+		return String.format("learn %d [%s]", slot, command);
 	}
 	
 }
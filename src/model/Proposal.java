@@ -0,0 +1,53 @@
+package model;
+
+/** Proposal
+ * A numbered value proposed for one slot of the replicated command log.
+ * Acceptors keep the last proposal they accepted for each slot.
+ *
+ * By: Gaurav Nagar, Hari Kosuru,
+ * Taylor Schmidt, and Ronald Macmaster.
+ * UT-EIDs: gn3544, hk8633, trs2277,  rpm953
+ * Date: 4/24/2017
+ */
+public class Proposal {
+
+	// log slot
+	private int slot;
+
+	// proposal number
+	private LamportClock number;
+
+	// server transaction
+	private String command;
+
+	/** Proposal() <br>
+	 *
+	 * Constructs a new Proposal. <br>
+	 * @param slot log position the command is proposed for.
+	 * @param number lamport timestamp functions as proposal number.
+	 * @param command server transaction functions as proposal value.
+	 */
+	public Proposal(int slot, LamportClock number, String command) {
+		this.slot = slot;
+		this.number = number;
+		this.command = command;
+	}
+
+	public int getSlot() {
+		return slot;
+	}
+
+	public LamportClock getNumber() {
+		return number;
+	}
+
+	public String getCommand() {
+		return command;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("{%d [%s] %s}", slot, command, number);
+	}
+
+}
@@ -1,6 +1,8 @@
-
 package model;
 
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 /** ProposalMessage
  * Proposal messages for the paxos algorithm.
  * Contains message data for a proposal. prepare and accept requests.
@@ -12,6 +14,12 @@ package model;
  */
 public class ProposalMessage {
 	
+	private static final Pattern PREPARE = Pattern.compile("proposer prepare (\\d+) (\\(\\d+, \\d+\\))");
+	private static final Pattern ACCEPT = Pattern.compile("proposer accept (\\d+) \\[(.*?)\\] (\\(\\d+, \\d+\\))");
+	
+	// log slot
+	private int slot;
+	
 	// proposal number
 	private LamportClock number;
 	
@@ -25,10 +33,12 @@ public class ProposalMessage {
 	 * 
 	 * Constructs a new Proposal Message. <br>
 	 * proposes an accept .
+	 * @param slot log slot the command is proposed for.
 	 * @param clock lamport timestamp functions as proposal number.
 	 * @param command server transaction functions as proposal value.
 	 */
-	public ProposalMessage(LamportClock clock, String command) {
+	public ProposalMessage(int slot, LamportClock clock, String command) {
+		this.slot = slot;
 		this.number = clock;
 		this.command = command;
 		this.type = "accept";
@@ -38,13 +48,38 @@ public class ProposalMessage {
 	 * 
 	 * Constructs a new Proposal Message. <br>
 	 * proposes a prepare.
+	 * @param slot first log slot the prepare covers.
 	 * @param clock lamport timestamp functions as proposal number.
 	 */
-	public ProposalMessage(LamportClock clock) {
+	public ProposalMessage(int slot, LamportClock clock) {
+		this.slot = slot;
 		this.number = clock;
 		this.type = "prepare";
 	}
 	
+	/**
+	 * parse()
+	 * 
+	 * Factory method to rebuild a proposal message from its string form. <br>
+	 * Returns null upon failure.
+	 */
+	public static ProposalMessage parse(String message) {
+		Matcher matcher = PREPARE.matcher(message);
+		if (matcher.find()) {
+			return new ProposalMessage(Integer.parseInt(matcher.group(1)), LamportClock.parseClock(matcher.group(2)));
+		}
+		matcher = ACCEPT.matcher(message);
+		if (matcher.find()) {
+			int slot = Integer.parseInt(matcher.group(1));
+			return new ProposalMessage(slot, LamportClock.parseClock(matcher.group(3)), matcher.group(2));
+		}
+		return null;
+	}
+	
+	public int getSlot() {
+		return slot;
+	}
+	
 	public LamportClock getNumber() {
 		return number;
 	}
@@ -61,9 +96,9 @@ public class ProposalMessage {
 	@Override
 	public String toString() {
 		if(type.equals("prepare")){
-			return String.format("proposer prepare %s", number);
+			return String.format("proposer prepare %d %s", slot, number);
 		} else if(type.equals("accept")){
-			return String.format("proposer accept [%s] %s", command, number);			
+			return String.format("proposer accept %d [%s] %s", slot, command, number);			
 		} else { // bad proposal message.
 			return null;
 		}
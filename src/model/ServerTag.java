@@ -89,4 +89,12 @@ public class ServerTag {
 		return InetAddress.getByAddress(address);
 	}
 	
+	/** toString()
+	 * returns the tag as <ip_address>:<port>, the format parse() reads. <br>
+	 */
+	@Override
+	public String toString() {
+		return String.format("%d.%d.%d.%d:%d", address[0] & 0xff, address[1] & 0xff, address[2] & 0xff, address[3] & 0xff, port);
+	}
+	
 }
@@ -0,0 +1,221 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+
+import messenger.ServerMessenger;
+
+/** CommandBatcher
+ * Proposer-side batcher for client writes.
+ * Groups pending purchase / cancel commands into one paxos proposal value.
+ * Each client thread blocks until its own command in the batch is applied.
+ * One worker per pipelined paxos slot, so several batches are in flight at once.
+ *
+ * By: Gaurav Nagar, Hari Kosuru,
+ * Taylor Schmidt, and Ronald Macmaster.
+ * UT-EIDs: gn3544, hk8633, trs2277,  rpm953
+ * Date: 4/25/2017
+ */
+public class CommandBatcher implements Runnable {
+	
+	// commands inside a batch value are separated by this token.
+	public static final String SEPARATOR = ";";
+	
+	// response for a write whose slot was covered by a snapshot this server installed.
+	private static final String SKIPPED = "Request was decided while this server caught up. search to confirm it.";
+	
+	// response for a write this server can no longer propose: it was removed from the configuration.
+	private static final String NOT_MEMBER = "This server is not a member of the cluster. try another server.";
+	
+	// responses for a write past its deadline, before and after it went into a batch.
+	private static final String EXPIRED = "Request timed out before it was proposed. It was not applied.";
+	private static final String TIMED_OUT = "Request timed out. It may still be applied: search to confirm it.";
+	
+	private Server server;
+	private int maxSize; // most commands per batch.
+	private int maxBytes; // longest batch value.
+	private long linger; // milliseconds to wait for a batch to fill.
+	private int workers; // batches proposed at once.
+	
+	// client writes waiting for a batch.
+	private LinkedList<Request> pending;
+	
+	/** Request
+	 * A client write and the response it is waiting on.
+	 * The client waits on a latch, not a monitor, so a virtual session thread unmounts while it waits.
+	 * The first response wins: the deadline and the log may both complete it.
+	 */
+	private static class Request {
+		
+		private String command;
+		private volatile String response = null;
+		private CountDownLatch done = new CountDownLatch(1);
+		
+		private Request(String command) {
+			this.command = command;
+		}
+		
+		private synchronized void complete(String response) {
+			if (this.response == null) {
+				this.response = response;
+				done.countDown();
+			}
+		}
+		
+		private String await() throws InterruptedException {
+			done.await();
+			return response;
+		}
+	}
+	
+	/** CommandBatcher <br>
+	 *
+	 * Constructs a new CommandBatcher Object. <br>
+	 * @param maxSize most commands decided together.
+	 * @param linger milliseconds to wait for more commands once one is pending.
+	 * @param workers batches proposed at once.
+	 */
+	public CommandBatcher(Server server, int maxSize, long linger, int workers) {
+		this.server = server;
+		this.maxSize = Math.max(1, maxSize);
+		this.maxBytes = ServerConfig.DATAGRAM_SIZE / 4;
+		this.linger = Math.max(0, linger);
+		this.workers = Math.max(1, workers);
+		this.pending = new LinkedList<Request>();
+	}
+	
+	/**
+	 * start()
+	 * 
+	 * Starts the batch proposer workers. <br>
+	 */
+	public void start() {
+		for (int idx = 0; idx < workers; idx++) {
+			Thread worker = new Thread(this, "batcher-" + idx);
+			worker.setDaemon(true);
+			worker.start();
+		}
+	}
+	
+	/**
+	 * split()
+	 *
+	 * returns the commands of a batch value, in apply order. <br>
+	 */
+	public static List<String> split(String value) {
+		return Arrays.asList(value.split(SEPARATOR));
+	}
+	
+	/**
+	 * submit()
+	 *
+	 * Queues a client write for the next batch, with a deadline. <br>
+	 * Blocks until the command is applied or timeout ms pass. 0 waits forever.
+	 * The deadline is kept by the server's timer wheel, so a waiting write holds no timer thread.
+	 */
+	public String submit(String command, long timeout) throws InterruptedException {
+		if (command.contains(SEPARATOR) || command.contains(SymbolTable.PREFIX)) { // reserved tokens.
+			return "invalid server command: " + command;
+		}
+		
+		final Request request = new Request(command.trim());
+		synchronized (this) {
+			pending.add(request);
+			notifyAll();
+		}
+		if (timeout <= 0) {
+			return request.await();
+		}
+		
+		TimerWheel.Timeout deadline = server.getTimer().schedule(new Runnable() {
+			@Override
+			public void run() {
+				expire(request);
+			}
+		}, timeout);
+		try {
+			return request.await();
+		} finally {
+			deadline.cancel();
+		}
+	}
+	
+	/**
+	 * answers a write past its deadline. one still pending never reaches the log. <br>
+	 */
+	private synchronized void expire(Request request) {
+		request.complete(pending.remove(request) ? EXPIRED : TIMED_OUT);
+	}
+	
+	@Override
+	public void run() {
+		ServerMessenger messenger = server.getMessenger();
+		CommandLog log = server.getLog();
+		try {
+			while (true) { // propose batches. the log applies them in slot order.
+				List<Request> batch = nextBatch();
+				StringBuilder value = new StringBuilder();
+				for (Request request : batch) { // names we already know travel as symbol ids.
+					String command = ServerThread.encode(server, request.command, false);
+					value.append(value.length() > 0 ? SEPARATOR : "").append(command);
+				}
+				
+				int slot = -1; // log slot the batch is chosen for.
+				while (messenger.isMember() && (slot = messenger.proposal(value.toString())) < 0) {
+					Thread.sleep(50 * ThreadLocalRandom.current().nextInt(2, 5 + 1));
+				}
+				
+				// hand each client its own response.
+				List<String> responses = (slot < 0) ? Collections.nCopies(batch.size(), NOT_MEMBER) : log.awaitResponses(slot, ServerConfig.REQUEST_TIMEOUT);
+				if (responses == null) { // applied too late, or on no replica we hear from. free the window slot.
+					responses = Collections.nCopies(batch.size(), TIMED_OUT);
+				}
+				for (int idx = 0; idx < batch.size(); idx++) {
+					String response = (idx < responses.size()) ? responses.get(idx) : SKIPPED;
+					batch.get(idx).complete(response);
+				}
+			}
+		} catch (InterruptedException err) {
+			System.err.println("Command batcher interrupted. exiting...");
+		}
+	}
+	
+	/**
+	 * nextBatch()
+	 *
+	 * Blocks until a write is pending, then lingers for the batch to fill. <br>
+	 * returns up to maxSize commands, bounded by maxBytes.
+	 * A membership change always makes up a batch of its own.
+	 */
+	private synchronized List<Request> nextBatch() throws InterruptedException {
+		while (pending.isEmpty()) {
+			wait();
+		}
+		
+		long deadline = System.currentTimeMillis() + linger;
+		long remaining = linger;
+		while (pending.size() < maxSize && remaining > 0) {
+			wait(remaining);
+			remaining = deadline - System.currentTimeMillis();
+		}
+		
+		List<Request> batch = new ArrayList<Request>();
+		int bytes = 0;
+		boolean alone = ServerMessenger.isReconfiguration(pending.peek().command);
+		while (!pending.isEmpty() && batch.size() < maxSize) {
+			int length = pending.peek().command.length() + SEPARATOR.length();
+			if (!batch.isEmpty() && (bytes + length > maxBytes || alone || ServerMessenger.isReconfiguration(pending.peek().command))) {
+				break; // full. the rest goes in the next batch.
+			}
+			batch.add(pending.poll());
+			bytes += length;
+		}
+		return batch;
+	}
+
+}
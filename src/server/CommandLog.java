@@ -0,0 +1,650 @@
+package server;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/** CommandLog
+ * Replicated command log. Maps each paxos slot to its chosen command.
+ * Chosen commands are applied to the server strictly in slot order.
+ * A slot may hold a batch of commands, applied together as one step.
+ * Independent commands of a batch are applied in parallel.
+ * Deciding a slot only records it. A platform thread of the log applies it, outside the log monitor,
+ * so a session or UDP thread that decides never holds a monitor while a batch runs. A virtual
+ * thread then never pins its carrier on the apply.
+ *
+ * By: Gaurav Nagar, Hari Kosuru,
+ * Taylor Schmidt, and Ronald Macmaster.
+ * UT-EIDs: gn3544, hk8633, trs2277,  rpm953
+ * Date: 4/24/2017
+ */
+public class CommandLog {
+	
+	private Server server;
+	
+	// slot -> chosen command
+	private TreeMap<Integer, String> chosen;
+	
+	// apply cursor: every slot below it has been executed.
+	private volatile int applied = 0;
+	
+	// wakes awaitApplied() without the log monitor, so a waiting virtual thread does not pin its carrier.
+	private ReentrantLock progress = new ReentrantLock();
+	private Condition advanced = progress.newCondition();
+	
+	// purchases applied so far. the n-th purchase in the log gets order id n.
+	private int purchases = 0;
+	
+	// runs the independent commands of a batch in parallel. null applies on the apply thread alone.
+	private ExecutorService appliers;
+	private boolean applying = false; // the apply thread is running a slot outside the monitor.
+	
+	// write-ahead log of decided slots. null keeps the log in memory only.
+	private Journal journal;
+	private Map<Integer, Long> journaled; // expected slot -> journal sequence number.
+	
+	// snapshot of the store. the journal keeps only the slots after it.
+	private static final int SNAPSHOT_MAGIC = 0x534e5032; // "SNP2": carries the cluster configuration.
+	private File snapshotFile;
+	private int snapshotSlot = 0; // first slot the latest snapshot does not cover.
+	private boolean snapshotting = false;
+	
+	// responses held for local clients waiting on their slot.
+	private Map<Integer, String> expected; // slot -> value we proposed for it.
+	private Map<Integer, List<String>> responses;
+	
+	/** CommandLog <br>
+	 *
+	 * Constructs a new, empty CommandLog. <br>
+	 */
+	public CommandLog(Server server) {
+		this.server = server;
+		this.chosen = new TreeMap<Integer, String>();
+		this.expected = new HashMap<Integer, String>();
+		this.responses = new HashMap<Integer, List<String>>();
+		this.journaled = new HashMap<Integer, Long>();
+		if (ServerConfig.APPLY_THREADS > 1) {
+			this.appliers = Executors.newFixedThreadPool(ServerConfig.APPLY_THREADS, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable task) {
+					Thread applier = new Thread(task, "applier");
+					applier.setDaemon(true);
+					return applier;
+				}
+			});
+		}
+		Thread applier = new Thread("log-apply") {
+			@Override
+			public void run() {
+				applyChosen();
+			}
+		};
+		applier.setDaemon(true);
+		applier.start();
+	}
+	
+	/**
+	 * returns the apply cursor. <br>
+	 * every slot below the cursor has been executed on this server.
+	 */
+	public synchronized int getApplied() {
+		return applied;
+	}
+	
+	/**
+	 * returns the lowest slot that has no chosen command yet. <br>
+	 */
+	public synchronized int getFirstUndecided() {
+		int slot = applied;
+		while (chosen.containsKey(slot)) {
+			slot += 1;
+		}
+		return slot;
+	}
+	
+	/**
+	 * returns the highest slot with a chosen command, or -1 if none is known.
+	 */
+	public synchronized int getLastDecided() {
+		return chosen.isEmpty() ? applied - 1 : Math.max(applied - 1, chosen.lastKey());
+	}
+	
+	/**
+	 * returns the command chosen for a slot, or null if it is unknown.
+	 */
+	public synchronized String getCommand(int slot) {
+		return chosen.get(slot);
+	}
+	
+	/**
+	 * expect()
+	 *
+	 * Registers a local client waiting on the response of a slot, before its value is proposed. <br>
+	 * If the slot is decided with another value, the client gets no per-command response.
+	 * A slot already applied has no responses left to collect.
+	 */
+	public synchronized void expect(int slot, String value) {
+		if (slot < applied) {
+			responses.put(slot, Collections.<String>emptyList());
+			notifyAll();
+		} else {
+			expected.put(slot, value);
+		}
+	}
+	
+	/**
+	 * forget()
+	 *
+	 * Drops the expectation of a slot whose proposal failed, or whose client stopped waiting. <br>
+	 */
+	public synchronized void forget(int slot) {
+		expected.remove(slot);
+		responses.remove(slot);
+		journaled.remove(slot);
+	}
+	
+	/**
+	 * hands the results of an applied slot to the client expecting it, if the value is the one it proposed. <br>
+	 */
+	private void collect(int slot, String command, List<String> results) {
+		String value = expected.remove(slot);
+		if (value != null) {
+			responses.put(slot, value.equals(command) ? results : Collections.<String>emptyList());
+		}
+	}
+	
+	/**
+	 * decide()
+	 *
+	 * Records the command chosen for a slot. <br>
+	 * The apply thread then applies every contiguous chosen slot at the cursor.
+	 * returns false if the slot was already decided.
+	 */
+	public synchronized boolean decide(int slot, String command) {
+		if (slot < applied || chosen.containsKey(slot)) {
+			String previous = chosen.get(slot);
+			if (previous != null && !previous.equals(command)) {
+				System.err.format("Slot %d was already decided as [%s], not [%s]!%n", slot, previous, command);
+			}
+			return false;
+		}
+		
+		chosen.put(slot, command);
+		if (journal != null) { // the writer syncs it in the background. clients wait for it.
+			long sequence = journal.append(slot + " " + command);
+			if (expected.containsKey(slot)) {
+				journaled.put(slot, sequence);
+			}
+		}
+		notifyAll(); // wakes the apply thread.
+		return true;
+	}
+	
+	/**
+	 * Apply thread. applies each chosen slot at the cursor, in slot order. <br>
+	 * The batch runs outside the monitor. Readers of the whole store (snapshots, installs)
+	 * wait for the slot boundary, so they never see half a batch.
+	 */
+	private void applyChosen() {
+		try {
+			while (true) {
+				int slot;
+				String batch;
+				synchronized (this) {
+					while (!chosen.containsKey(applied)) {
+						wait();
+					}
+					slot = applied;
+					batch = chosen.get(slot);
+					applying = true;
+				}
+				
+				List<String> results = apply(batch);
+				synchronized (this) {
+					collect(slot, batch, results);
+					applied += 1;
+					applying = false;
+					if (journal != null && !snapshotting && applied - snapshotSlot >= ServerConfig.SNAPSHOT_INTERVAL) {
+						snapshot();
+					}
+					notifyAll();
+				}
+				signalApplied();
+			}
+		} catch (InterruptedException err) {
+			System.err.println("Log apply thread interrupted. exiting...");
+		}
+	}
+	
+	/**
+	 * waits out a slot the apply thread is running. call with the monitor held. <br>
+	 */
+	private void awaitSlotBoundary() {
+		boolean interrupted = false;
+		while (applying) {
+			try {
+				wait();
+			} catch (InterruptedException err) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * blocks until every chosen slot at the cursor is applied. <br>
+	 */
+	private synchronized void awaitApplyIdle() throws InterruptedException {
+		while (applying || chosen.containsKey(applied)) {
+			wait();
+		}
+	}
+	
+	/**
+	 * returns the first slot the latest snapshot does not cover. <br>
+	 * commands of earlier slots are no longer kept.
+	 */
+	public synchronized int getSnapshotSlot() {
+		return snapshotSlot;
+	}
+	
+	/**
+	 * captureSnapshot()
+	 *
+	 * returns the store as of the apply cursor, serialized. <br>
+	 * Format: [magic][slot][purchases][configuration] then Server.writeSnapshot().
+	 */
+	public synchronized byte[] captureSnapshot() {
+		awaitSlotBoundary();
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(SNAPSHOT_MAGIC);
+			out.writeInt(applied);
+			out.writeInt(purchases);
+			server.getMessenger().writeMembership(out);
+			server.writeSnapshot(out);
+			out.flush();
+			return bytes.toByteArray();
+		} catch (IOException err) { // in memory. does not happen.
+			throw new IllegalStateException(err);
+		}
+	}
+	
+	/**
+	 * returns the slot a captured snapshot was taken at: the first slot it does not cover. <br>
+	 */
+	public static int getSnapshotSlot(byte[] state) {
+		return ByteBuffer.wrap(state).getInt(4); // after the magic.
+	}
+	
+	/**
+	 * returns a copy of every decided slot from the given one on. <br>
+	 */
+	public synchronized SortedMap<Integer, String> getDecided(int from) {
+		return new TreeMap<Integer, String>(chosen.tailMap(Math.max(from, snapshotSlot)));
+	}
+	
+	/**
+	 * install()
+	 *
+	 * Replaces the store with a snapshot fetched from a peer, if it is ahead of us. <br>
+	 * The apply thread then applies the decided slots after it. Local clients waiting on a skipped slot
+	 * get no per-command response. The snapshot is saved, since the journal lacks the slots it skipped.
+	 * returns false if the snapshot is not ahead of us.
+	 */
+	public synchronized boolean install(byte[] state) throws IOException {
+		awaitSlotBoundary();
+		int slot = getSnapshotSlot(state);
+		if (slot <= applied) {
+			return false;
+		}
+		restore(new DataInputStream(new ByteArrayInputStream(state)));
+		
+		for (Integer skipped : new ArrayList<Integer>(expected.keySet())) {
+			if (skipped < slot) {
+				expected.remove(skipped);
+				responses.put(skipped, Collections.<String>emptyList());
+			}
+		}
+		chosen.headMap(slot).clear();
+		if (journal != null && !snapshotting) {
+			snapshot();
+		}
+		notifyAll();
+		signalApplied();
+		return true;
+	}
+	
+	/**
+	 * snapshot()
+	 *
+	 * Captures the store as of the apply cursor, then writes it out in the background. <br>
+	 * Called between slots, so the capture sees whole batches only.
+	 */
+	private void snapshot() {
+		final int slot = applied;
+		final byte[] state = captureSnapshot();
+		snapshotting = true;
+		Thread writer = new Thread("snapshot-" + slot) {
+			@Override
+			public void run() {
+				try {
+					saveSnapshot(slot, state);
+				} catch (IOException | InterruptedException err) {
+					System.err.println("Could not save the snapshot of slot " + slot + ": " + err);
+				} finally {
+					synchronized (CommandLog.this) {
+						snapshotting = false;
+					}
+				}
+			}
+		};
+		writer.setDaemon(true);
+		writer.start();
+	}
+	
+	/**
+	 * saveSnapshot()
+	 *
+	 * Syncs a captured snapshot to disk, then drops the slots it covers from the journal. <br>
+	 */
+	private void saveSnapshot(int slot, byte[] state) throws IOException, InterruptedException {
+		File fresh = new File(snapshotFile.getPath() + ".tmp");
+		try (FileOutputStream out = new FileOutputStream(fresh)) {
+			out.write(state);
+			out.getFD().sync();
+		}
+		if (!fresh.renameTo(snapshotFile)) {
+			throw new IOException("could not replace " + snapshotFile);
+		}
+		
+		synchronized (this) { // keep the slots after the snapshot. no slot is decided meanwhile.
+			List<String> tail = new ArrayList<String>();
+			for (Map.Entry<Integer, String> entry : chosen.tailMap(slot).entrySet()) {
+				tail.add(entry.getKey() + " " + entry.getValue());
+			}
+			journal.truncate(tail);
+			chosen.headMap(slot).clear();
+			snapshotSlot = slot;
+		}
+		server.getMessenger().compactJournal();
+		System.out.format("Saved snapshot of slot %d (%d bytes).%n", slot, state.length);
+	}
+	
+	/**
+	 * restores the store from a snapshot file. returns false if there is none. <br>
+	 */
+	private boolean restore(File file) throws IOException {
+		if (!file.exists()) {
+			return false;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			restore(in);
+		}
+		return true;
+	}
+	
+	/**
+	 * replaces the store, the configuration, the apply cursor and the order counter with a snapshot. <br>
+	 */
+	private synchronized void restore(DataInputStream in) throws IOException {
+		if (in.readInt() != SNAPSHOT_MAGIC) {
+			throw new IOException("not a snapshot");
+		}
+		int slot = in.readInt();
+		int orders = in.readInt();
+		server.getMessenger().readMembership(in);
+		server.resetStore();
+		server.readSnapshot(in);
+		applied = snapshotSlot = slot;
+		purchases = orders;
+	}
+	
+	/**
+	 * apply()
+	 *
+	 * Executes every command of a batch. returns their responses in batch order. <br>
+	 * Purchases that share no product and no user are independent, and run in parallel.
+	 * Any other command (cancel) is a barrier: it runs alone, after everything before it.
+	 * New user names are interned first, one by one in batch order, so ids match on every replica.
+	 * Each purchase is handed its order id the same way: "purchase #<user> #<product> <quantity> <order-id>".
+	 */
+	private List<String> apply(String batch) {
+		List<String> commands = new ArrayList<String>();
+		for (String command : CommandBatcher.split(batch)) {
+			command = ServerThread.encode(server, command, true);
+			if (command.trim().toLowerCase().startsWith("purchase")) {
+				purchases += 1;
+				command = command.trim() + " " + purchases;
+			}
+			commands.add(command);
+		}
+		String[] results = new String[commands.size()];
+		int start = 0;
+		for (int idx = 0; idx <= commands.size(); idx++) {
+			if (idx == commands.size() || getConflictKeys(commands.get(idx)) == null) {
+				applyIndependent(commands, start, idx, results);
+				if (idx < commands.size()) { // barrier
+					results[idx] = ServerThread.execute(server, commands.get(idx));
+				}
+				start = idx + 1;
+			}
+		}
+		return Arrays.asList(results);
+	}
+	
+	/**
+	 * applyIndependent()
+	 *
+	 * Executes commands [start, end) of a batch, none of them a barrier. <br>
+	 * Commands that share a key form one lane and keep their batch order. Lanes run in parallel.
+	 */
+	private void applyIndependent(final List<String> commands, int start, int end, final String[] results) {
+		if (end - start <= 1 || appliers == null) {
+			for (int idx = start; idx < end; idx++) {
+				results[idx] = ServerThread.execute(server, commands.get(idx));
+			}
+			return;
+		}
+		
+		// group the commands into lanes. a command joining two lanes merges them.
+		Map<String, List<Integer>> owners = new HashMap<String, List<Integer>>(); // key -> lane
+		List<List<Integer>> lanes = new ArrayList<List<Integer>>();
+		for (int idx = start; idx < end; idx++) {
+			List<Integer> lane = null;
+			for (String key : getConflictKeys(commands.get(idx))) {
+				List<Integer> owner = owners.get(key);
+				if (owner != null && owner != lane) {
+					if (lane != null) { // merge into the owning lane.
+						owner.addAll(lane);
+						Collections.sort(owner);
+						lanes.remove(lane);
+						for (Map.Entry<String, List<Integer>> entry : owners.entrySet()) {
+							if (entry.getValue() == lane) {
+								entry.setValue(owner);
+							}
+						}
+					}
+					lane = owner;
+				}
+			}
+			if (lane == null) {
+				lane = new ArrayList<Integer>();
+				lanes.add(lane);
+			}
+			lane.add(idx);
+			for (String key : getConflictKeys(commands.get(idx))) {
+				owners.put(key, lane);
+			}
+		}
+		
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (final List<Integer> lane : lanes) {
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					for (Integer idx : lane) {
+						results[idx] = ServerThread.execute(server, commands.get(idx));
+					}
+					return null;
+				}
+			});
+		}
+		
+		try {
+			for (Future<Void> task : appliers.invokeAll(tasks)) {
+				task.get();
+			}
+		} catch (InterruptedException | ExecutionException err) {
+			throw new IllegalStateException("could not apply batch", err);
+		}
+	}
+	
+	/**
+	 * getConflictKeys()
+	 *
+	 * returns the records a command changes, or null if it must run alone. <br>
+	 * A purchase changes its user's cart and its product's stock.
+	 */
+	private static List<String> getConflictKeys(String command) {
+		String[] tokens = command.trim().split("\\s+");
+		String opcode = tokens[0].toLowerCase();
+		if (opcode.equals("noop")) {
+			return Collections.emptyList();
+		} else if (opcode.equals("purchase") && tokens.length == 5) {
+			return Arrays.asList("user " + tokens[1], "product " + tokens[2]);
+		}
+		return null;
+	}
+	
+	/**
+	 * awaitApplied()
+	 *
+	 * Blocks until a slot is applied, or the timeout runs out. <br>
+	 * returns true if the slot was applied.
+	 */
+	public boolean awaitApplied(int slot, long timeout) throws InterruptedException {
+		long remaining = TimeUnit.MILLISECONDS.toNanos(timeout);
+		progress.lock();
+		try {
+			while (applied <= slot && remaining > 0) {
+				remaining = advanced.awaitNanos(remaining);
+			}
+			return applied > slot;
+		} finally {
+			progress.unlock();
+		}
+	}
+	
+	/**
+	 * wakes the threads in awaitApplied(). called after the apply cursor moves. <br>
+	 */
+	private void signalApplied() {
+		progress.lock();
+		try {
+			advanced.signalAll();
+		} finally {
+			progress.unlock();
+		}
+	}
+	
+	/**
+	 * awaitResponses()
+	 *
+	 * Blocks until an expected slot is applied, and journaled if the log is durable. <br>
+	 * returns the server response for each command in that slot, in batch order,
+	 * or null if the slot is not applied within timeout ms. 0 waits forever.
+	 */
+	public List<String> awaitResponses(int slot, long timeout) throws InterruptedException {
+		List<String> results;
+		Long sequence;
+		synchronized (this) {
+			long deadline = System.currentTimeMillis() + timeout;
+			while (!responses.containsKey(slot)) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (timeout <= 0) {
+					wait();
+				} else if (remaining > 0) {
+					wait(remaining);
+				} else {
+					forget(slot);
+					return null;
+				}
+			}
+			results = responses.remove(slot);
+			sequence = journaled.remove(slot);
+		}
+		
+		// wait for the group commit outside the log, so other slots keep deciding.
+		if (sequence != null) {
+			try {
+				journal.await(sequence);
+			} catch (IOException err) {
+				System.err.format("Slot %d was applied but could not be journaled: %s%n", slot, err.getMessage());
+			}
+		}
+		return results;
+	}
+	
+	/**
+	 * recover()
+	 *
+	 * Loads the latest snapshot, replays the slots journaled after it,
+	 * then journals every new decision. <br>
+	 * Must be called before the server starts.
+	 */
+	public void recover(File snapshotFile, Journal journal) throws IOException {
+		this.snapshotFile = snapshotFile;
+		if (restore(snapshotFile)) {
+			System.out.format("Loaded snapshot %s of slot %d.%n", snapshotFile, getApplied());
+		}
+		
+		int replayed = 0;
+		for (String record : journal.replay()) {
+			String[] fields = record.split(" ", 2);
+			if (fields.length == 2 && decide(Integer.parseInt(fields[0]), fields[1])) {
+				replayed += 1;
+			}
+		}
+		try {
+			awaitApplyIdle();
+		} catch (InterruptedException err) {
+			throw new InterruptedIOException("interrupted while replaying the journal");
+		}
+		System.out.format("Replayed %d journaled slots. applied up to slot %d.%n", replayed, getApplied());
+		
+		synchronized (this) {
+			this.journal = journal;
+		}
+		journal.start();
+	}
+
+}
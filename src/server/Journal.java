@@ -0,0 +1,224 @@
+package server;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/** Journal
+ * Durable append-only file of text records, one per line.
+ * Appends are queued and written by one writer thread, which syncs every record
+ * queued since its last write with a single fsync (group commit).
+ * Callers that must not go on until a record is on disk wait for its sequence number.
+ * The waits use a lock and conditions, not the monitor, so an acceptor reply waiting on
+ * a virtual thread does not pin its carrier.
+ *
+ * By: Gaurav Nagar, Hari Kosuru,
+ * Taylor Schmidt, and Ronald Macmaster.
+ * UT-EIDs: gn3544, hk8633, trs2277,  rpm953
+ * Date: 4/28/2017
+ */
+public class Journal implements Runnable {
+
+	private File file;
+	private FileChannel channel;
+
+	// guards every field below.
+	private ReentrantLock lock = new ReentrantLock();
+	private Condition queued = lock.newCondition(); // a record is pending.
+	private Condition flushed = lock.newCondition(); // synced moved on, or the writer failed.
+	
+	// records waiting for the writer.
+	private List<String> pending;
+	private long appended = 0; // sequence number of the last queued record.
+	private long synced = 0; // sequence number of the last record on disk.
+	private IOException failure = null; // the writer's last error. no record is durable after it.
+
+	/** Journal <br>
+	 *
+	 * Opens a journal file for appending, creating it and its directory if needed. <br>
+	 * Call replay() before the first append to read what an earlier run wrote.
+	 */
+	public Journal(File file) throws IOException {
+		this.file = file;
+		if (file.getParentFile() != null) {
+			file.getParentFile().mkdirs();
+		}
+		this.channel = new FileOutputStream(file, true).getChannel();
+		this.pending = new ArrayList<String>();
+	}
+
+	/**
+	 * start()
+	 *
+	 * Starts the group-commit writer. <br>
+	 */
+	public void start() {
+		Thread writer = new Thread(this, "journal-" + file.getName());
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * replay()
+	 *
+	 * returns every complete record in the file, in append order. <br>
+	 * A torn last line (the process died mid-write) is dropped from the file.
+	 */
+	public List<String> replay() throws IOException {
+		List<String> records = new ArrayList<String>();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+			String line = "";
+			while ((line = reader.readLine()) != null) {
+				records.add(line);
+			}
+		}
+
+		// readLine() also returns a last line with no newline. that write never finished.
+		// cut it off, so the next append starts on a fresh line.
+		if (!records.isEmpty() && file.length() > 0 && !endsWithNewline()) {
+			String torn = records.remove(records.size() - 1);
+			channel.truncate(file.length() - torn.getBytes(StandardCharsets.UTF_8).length);
+		}
+		return records;
+	}
+
+	/**
+	 * append()
+	 *
+	 * Queues a record for the next group commit. Does not wait for the disk. <br>
+	 * returns the record's sequence number, for await().
+	 */
+	public long append(String record) {
+		lock.lock();
+		try {
+			pending.add(record);
+			appended += 1;
+			queued.signal();
+			return appended;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * await()
+	 *
+	 * Blocks until the record with the given sequence number is on disk. <br>
+	 * @throws IOException if the writer failed before syncing it.
+	 */
+	public void await(long sequence) throws InterruptedException, IOException {
+		lock.lock();
+		try {
+			while (synced < sequence && failure == null) {
+				flushed.await();
+			}
+			if (synced < sequence) {
+				throw failure;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * truncate()
+	 *
+	 * Replaces the journal with the given records, e.g. the tail a snapshot does not cover. <br>
+	 * Waits for queued records first. The new file is synced before it replaces the old one.
+	 */
+	public void truncate(List<String> records) throws InterruptedException, IOException {
+		lock.lock();
+		try {
+			await(appended);
+			File fresh = new File(file.getPath() + ".tmp");
+			try (FileChannel out = new FileOutputStream(fresh, false).getChannel()) {
+				write(out, records);
+				out.force(true);
+			}
+			channel.close();
+			if (!fresh.renameTo(file)) {
+				throw new IOException("could not replace " + file);
+			}
+			channel = new FileOutputStream(file, true).getChannel();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			List<String> batch;
+			FileChannel out;
+			long last;
+			lock.lock();
+			try {
+				while (pending.isEmpty()) {
+					queued.await();
+				}
+				batch = pending;
+				pending = new ArrayList<String>();
+				out = channel;
+				last = appended;
+			} catch (InterruptedException err) {
+				System.err.println("Journal writer interrupted. exiting...");
+				return;
+			} finally {
+				lock.unlock();
+			}
+
+			// one write and one fsync for the whole group.
+			try {
+				write(out, batch);
+				out.force(false);
+				lock.lock();
+				try {
+					synced = last;
+					flushed.signalAll();
+				} finally {
+					lock.unlock();
+				}
+			} catch (IOException err) {
+				System.err.println("Could not write journal " + file + ": " + err.getMessage());
+				lock.lock();
+				try {
+					failure = err;
+					flushed.signalAll();
+				} finally {
+					lock.unlock();
+				}
+				return;
+			}
+		}
+	}
+
+	private static void write(FileChannel out, List<String> records) throws IOException {
+		StringBuilder text = new StringBuilder();
+		for (String record : records) {
+			text.append(record).append('\n');
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.UTF_8));
+		while (buffer.hasRemaining()) {
+			out.write(buffer);
+		}
+	}
+
+	private boolean endsWithNewline() throws IOException {
+		try (FileChannel in = new FileInputStream(file).getChannel()) {
+			ByteBuffer last = ByteBuffer.allocate(1);
+			in.read(last, in.size() - 1);
+			return last.get(0) == '\n';
+		}
+	}
+
+}
@@ -0,0 +1,138 @@
+package server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/** KeepAlive
+ * Pings a blocking client session every 50ms while one of its commands runs.
+ * The timer wheel only decides when a ping is due: the write itself is handed to a small fixed pool
+ * of sender threads, so a client that stops reading never stalls the wheel's retransmits and deadlines.
+ * A session has at most one ping queued or being written. A ping is skipped while the last one is pending,
+ * and a session whose ping has been stuck for STALL_LIMIT is disconnected, which frees its sender.
+ *
+ * By: Gaurav Nagar, Hari Kosuru,
+ * Taylor Schmidt, and Ronald Macmaster.
+ * UT-EIDs: gn3544, hk8633, trs2277,  rpm953
+ * Date: 4/30/2017
+ */
+public class KeepAlive implements Runnable {
+
+	// milliseconds between pings.
+	private static final long PING_INTERVAL = 50;
+
+	// milliseconds a ping may block before the client is treated as gone.
+	private static final long STALL_LIMIT = 5000;
+
+	// sender threads shared by every session. the count never grows with the sessions.
+	private static final int SENDER_THREADS = 4;
+
+	// writes the pings.
+	private static final ExecutorService SENDERS = Executors.newFixedThreadPool(SENDER_THREADS, new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable task) {
+			Thread sender = new Thread(task, "keep-alive");
+			sender.setDaemon(true);
+			return sender;
+		}
+	});
+
+	private Runnable ping;
+	private Closeable session; // closed if a ping stalls.
+	private TimerWheel.Timeout timeout;
+	private boolean queued = false; // a ping waits for a sender.
+	private boolean writing = false; // a ping is being written.
+	private long started = 0; // when the write began. (ms)
+	private boolean stopped = false;
+
+	/** KeepAlive <br>
+	 *
+	 * Constructs a new KeepAlive Object. ping writes one keep-alive to the session. <br>
+	 */
+	public KeepAlive(Runnable ping, Closeable session) {
+		this.ping = ping;
+		this.session = session;
+	}
+
+	/**
+	 * start()
+	 *
+	 * Starts the pings on the server's timer wheel. <br>
+	 */
+	public void start(TimerWheel timer) {
+		timeout = timer.repeat(this, PING_INTERVAL);
+	}
+
+	/**
+	 * stop()
+	 *
+	 * Stops the pings, and returns once none is being written. <br>
+	 * The session may then write its response without a ping landing in the middle of it.
+	 * A ping still queued is dropped, so a busy pool never holds the session up.
+	 */
+	public synchronized void stop() throws InterruptedException {
+		stopped = true;
+		timeout.cancel();
+		while (writing) {
+			wait();
+		}
+	}
+
+	/**
+	 * Timer task. hands a due ping to a sender, unless the last one is still pending. <br>
+	 */
+	@Override
+	public synchronized void run() {
+		if (stopped) {
+			return;
+		}
+		if (writing && System.currentTimeMillis() - started > STALL_LIMIT) {
+			System.err.println("Client stopped reading its keep-alives. disconnecting.");
+			try {
+				session.close(); // fails the blocked write.
+			} catch (IOException err) {
+				System.err.println("Could not close the session: " + err.getMessage());
+			}
+			stopped = true;
+			timeout.cancel();
+			return;
+		}
+		if (queued || writing) {
+			return;
+		}
+		queued = true;
+		SENDERS.execute(new Runnable() {
+			@Override
+			public void run() {
+				if (begin()) {
+					try {
+						ping.run();
+					} finally {
+						sent();
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * a sender takes the queued ping. returns false if the pings stopped meanwhile. <br>
+	 */
+	private synchronized boolean begin() {
+		queued = false;
+		if (stopped) {
+			return false;
+		}
+		writing = true;
+		started = System.currentTimeMillis();
+		return true;
+	}
+
+	private synchronized void sent() {
+		writing = false;
+		notifyAll();
+	}
+
+}
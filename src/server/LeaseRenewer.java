@@ -0,0 +1,41 @@
+package server;
+
+/** LeaseRenewer
+ * Keeps the leader lease alive while the store is idle.
+ * Proposes a noop through the batcher when the lease is half gone.
+ * The accept round of the noop renews the lease with a majority.
+ *
+ * By: Gaurav Nagar, Hari Kosuru,
+ * Taylor Schmidt, and Ronald Macmaster.
+ * UT-EIDs: gn3544, hk8633, trs2277,  rpm953
+ * Date: 4/26/2017
+ */
+public class LeaseRenewer extends Thread {
+	
+	private Server server;
+	
+	/** LeaseRenewer <br>
+	 * 
+	 * Constructs a new LeaseRenewer Object. <br>
+	 */
+	public LeaseRenewer(Server server) {
+		this.server = server;
+		this.setDaemon(true);
+	}
+	
+	@Override
+	public void run() {
+		try {
+			while (true) {
+				Thread.sleep(ServerConfig.LEASE_TIMEOUT / 4);
+				if (server.getMessenger().isLeader()
+					&& server.getMessenger().getLeaseRemaining() < ServerConfig.LEASE_TIMEOUT / 2) {
+					server.getBatcher().submit("noop", ServerConfig.LEASE_TIMEOUT); // a renewal slower than a lease is no use.
+				}
+			}
+		} catch (InterruptedException err) {
+			System.err.println("Lease renewer interrupted. exiting...");
+		}
+	}
+	
+}
@@ -0,0 +1,261 @@
+package server;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/** OrderTable
+ * Columnar store of the pending orders, indexed by order id.
+ * Each order is a row of primitive columns: user and product symbol ids, and quantity.
+ * A user's orders are chained in purchase order through the next / prev columns,
+ * so a cancel unlinks its row in O(1). About 20 bytes per order, with no object per order.
+ * A user's chain is locked on one of STRIPES user stripes, so the apply lanes of different users
+ * write their own rows in parallel. Growing the columns takes the resize lock alone.
+ *
+ * By: Gaurav Nagar, Hari Kosuru,
+ * Taylor Schmidt, and Ronald Macmaster.
+ * UT-EIDs: gn3544, hk8633, trs2277,  rpm953
+ * Date: 4/27/2017
+ */
+public class OrderTable {
+
+	// marks an empty row, or the end of a user's chain.
+	private static final int NONE = -1;
+
+	// user locks. a user's chain, and the rows on it, only change under its stripe.
+	private static final int STRIPES = 64;
+	private Object[] stripes;
+
+	// shared by row updates and reads. held alone while the columns are replaced.
+	private ReadWriteLock resize;
+
+	// order columns, indexed by order id. row 0 is unused: order ids start at 1.
+	private int[] users; // user id, or NONE if there is no such order.
+	private int[] products; // product id
+	private int[] quantities;
+	private int[] next, prev; // neighbours in the user's chain.
+
+	// user chains, indexed by user symbol id.
+	private int[] heads, tails; // first and last order of each user.
+
+	/** OrderTable <br>
+	 *
+	 * Constructs a new, empty OrderTable. <br>
+	 */
+	public OrderTable() {
+		this.users = new int[0];
+		this.products = new int[0];
+		this.quantities = new int[0];
+		this.next = new int[0];
+		this.prev = new int[0];
+		this.heads = new int[0];
+		this.tails = new int[0];
+		this.stripes = new Object[STRIPES];
+		for (int idx = 0; idx < STRIPES; idx++) {
+			stripes[idx] = new Object();
+		}
+		this.resize = new ReentrantReadWriteLock();
+		grow(1024);
+	}
+
+	/**
+	 * add()
+	 *
+	 * Stores a new order at the end of the user's chain. <br>
+	 * The log hands out order ids, so a purchase that fails leaves its row empty.
+	 */
+	public void add(int id, int user, int product, int quantity) {
+		reserve(id, user);
+		resize.readLock().lock();
+		try {
+			synchronized (stripe(user)) {
+				users[id] = user;
+				products[id] = product;
+				quantities[id] = quantity;
+
+				// link at the tail of the user's chain.
+				next[id] = NONE;
+				prev[id] = tails[user];
+				if (tails[user] == NONE) {
+					heads[user] = id;
+				} else {
+					next[tails[user]] = id;
+				}
+				tails[user] = id;
+			}
+		} finally {
+			resize.readLock().unlock();
+		}
+	}
+
+	/**
+	 * remove()
+	 *
+	 * Removes an order and unlinks it from its user's chain. <br>
+	 * returns the order's {product, quantity}, or null if there is no such order.
+	 */
+	public int[] remove(int id) {
+		resize.readLock().lock();
+		try {
+			if (id <= 0 || id >= users.length || users[id] == NONE) {
+				return null;
+			}
+
+			int user = users[id];
+			synchronized (stripe(user)) {
+				if (users[id] != user) {
+					return null; // removed meanwhile.
+				}
+				if (prev[id] == NONE) {
+					heads[user] = next[id];
+				} else {
+					next[prev[id]] = next[id];
+				}
+				if (next[id] == NONE) {
+					tails[user] = prev[id];
+				} else {
+					prev[next[id]] = prev[id];
+				}
+
+				users[id] = NONE;
+				return new int[] { products[id], quantities[id] };
+			}
+		} finally {
+			resize.readLock().unlock();
+		}
+	}
+
+	/**
+	 * snapshot()
+	 *
+	 * returns the user's orders in purchase order, as {id, product, quantity} triples. <br>
+	 * The caller renders them without holding the table.
+	 */
+	public int[] snapshot(int user) {
+		resize.readLock().lock();
+		try {
+			if (user >= heads.length) {
+				return new int[0];
+			}
+
+			synchronized (stripe(user)) {
+				int count = 0;
+				for (int id = heads[user]; id != NONE; id = next[id]) {
+					count += 1;
+				}
+				int[] rows = new int[3 * count];
+				int idx = 0;
+				for (int id = heads[user]; id != NONE; id = next[id]) {
+					rows[idx++] = id;
+					rows[idx++] = products[id];
+					rows[idx++] = quantities[id];
+				}
+				return rows;
+			}
+		} finally {
+			resize.readLock().unlock();
+		}
+	}
+
+	/**
+	 * write()
+	 *
+	 * Writes every order as {id, user, product, quantity}, by ascending id. <br>
+	 * Ids follow purchase order, so reading them back rebuilds each user's chain.
+	 * The log writes between slots, while no lane runs. The resize lock keeps the columns in place.
+	 */
+	public void write(DataOutputStream out) throws IOException {
+		resize.writeLock().lock();
+		try {
+			int count = 0;
+			for (int id = 1; id < users.length; id++) {
+				count += (users[id] == NONE) ? 0 : 1;
+			}
+			out.writeInt(count);
+			for (int id = 1; id < users.length; id++) {
+				if (users[id] != NONE) {
+					out.writeInt(id);
+					out.writeInt(users[id]);
+					out.writeInt(products[id]);
+					out.writeInt(quantities[id]);
+				}
+			}
+		} finally {
+			resize.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * read()
+	 *
+	 * Adds the orders written by write(). <br>
+	 */
+	public void read(DataInputStream in) throws IOException {
+		int count = in.readInt();
+		for (int row = 0; row < count; row++) {
+			add(in.readInt(), in.readInt(), in.readInt(), in.readInt());
+		}
+	}
+
+	/**
+	 * grows the columns to hold the order id and the user id, if they are too small. <br>
+	 * The columns only grow, so they still fit once the resize lock is shared again.
+	 */
+	private void reserve(int id, int user) {
+		resize.readLock().lock();
+		try {
+			if (id < users.length && user < heads.length) {
+				return;
+			}
+		} finally {
+			resize.readLock().unlock();
+		}
+
+		resize.writeLock().lock();
+		try {
+			if (id >= users.length) {
+				grow(Math.max(users.length * 2, id + 1));
+			}
+			if (user >= heads.length) {
+				growUsers(Math.max(16, 2 * user));
+			}
+		} finally {
+			resize.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * returns the lock of a user's chain. <br>
+	 */
+	private Object stripe(int user) {
+		return stripes[user % STRIPES];
+	}
+
+	/**
+	 * grows the user chains to hold user ids below size. call with the resize lock held alone. <br>
+	 */
+	private void growUsers(int size) {
+		int from = heads.length;
+		heads = Arrays.copyOf(heads, size);
+		tails = Arrays.copyOf(tails, size);
+		Arrays.fill(heads, from, size, NONE);
+		Arrays.fill(tails, from, size, NONE);
+	}
+
+	/**
+	 * grows the order columns to hold ids below size. call with the resize lock held alone. <br>
+	 */
+	private void grow(int size) {
+		int from = users.length;
+		users = Arrays.copyOf(users, size);
+		products = Arrays.copyOf(products, size);
+		quantities = Arrays.copyOf(quantities, size);
+		next = Arrays.copyOf(next, size);
+		prev = Arrays.copyOf(prev, size);
+		Arrays.fill(users, from, size, NONE);
+	}
+
+}
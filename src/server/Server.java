@@ -10,28 +10,52 @@ package server;
  * Date: 4/20/2017
  */
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
 
 import messenger.ServerMessenger;
-import model.Order;
 
 public class Server {
 	
 	// server networking
 	public String filename;
 	private ServerMessenger messenger;
+	private CommandLog log;
+	private CommandBatcher batcher;
+	private StateTransfer transfer;
+	private TimerWheel timer; // keep-alives, retransmits and request deadlines.
 	
 	// server records
-	private Map<String, Integer> inventory;
-	private Map<Integer, Order> orders; // list of pending orders.
-	private Map<String, List<Order>> users; // user to string records
+	private SymbolTable products; // product ids, fixed by load().
+	private volatile SymbolTable users; // user ids, handed out in log order.
+	private AtomicIntegerArray inventory; // product id -> stock count
+	private AtomicLong version; // bumped by every stock change.
+	private volatile CatalogView catalog; // last rendered list response.
+	private volatile OrderTable orders; // pending orders, with each user's cart.
+	
+	/** CatalogView
+	 * The list response, rendered as of one inventory version.
+	 */
+	private static class CatalogView {
+		
+		private final long version;
+		private final String text;
+		
+		private CatalogView(long version, String text) {
+			this.version = version;
+			this.text = text;
+		}
+	}
 	
 	public static void main(String[] args) {
 		// parse the inventory file and start the server.
@@ -44,11 +68,18 @@ public class Server {
 	public Server() {
 		// server networking
 		this.messenger = new ServerMessenger(this);
+		this.log = new CommandLog(this);
+		this.transfer = new StateTransfer(this);
+		this.timer = new TimerWheel();
+		this.batcher = new CommandBatcher(this, ServerConfig.BATCH_SIZE, ServerConfig.BATCH_LINGER, ServerConfig.PAXOS_WINDOW);
 		
 		// server records
-		this.inventory = new HashMap<String, Integer>();
-		this.users = new HashMap<String, List<Order>>();
-		this.orders = new HashMap<Integer, Order>();
+		this.products = new SymbolTable();
+		this.users = new SymbolTable();
+		this.inventory = new AtomicIntegerArray(0);
+		this.version = new AtomicLong(0);
+		this.catalog = new CatalogView(-1, "");
+		this.orders = new OrderTable();
 	}
 	
 	/** getMessenger()
@@ -59,6 +90,54 @@ public class Server {
 		return this.messenger;
 	}
 	
+	/** getLog()
+	 * 
+	 * provides access to the replicated command log for this server. <br>
+	 */
+	public CommandLog getLog() {
+		return this.log;
+	}
+	
+	/** getProducts()
+	 * 
+	 * provides access to the product symbols. ids are fixed once the inventory is loaded. <br>
+	 */
+	public SymbolTable getProducts() {
+		return this.products;
+	}
+	
+	/** getUsers()
+	 * 
+	 * provides access to the user symbols. new users are interned as the log is applied. <br>
+	 */
+	public SymbolTable getUsers() {
+		return this.users;
+	}
+	
+	/** getStateTransfer()
+	 * 
+	 * provides access to the catch-up service of this server. <br>
+	 */
+	public StateTransfer getStateTransfer() {
+		return this.transfer;
+	}
+	
+	/** getTimer()
+	 * 
+	 * provides access to the timer wheel shared by every session of this server. <br>
+	 */
+	public TimerWheel getTimer() {
+		return this.timer;
+	}
+	
+	/** getBatcher()
+	 * 
+	 * provides access to the write batcher for this server. <br>
+	 */
+	public CommandBatcher getBatcher() {
+		return this.batcher;
+	}
+	
 	/**
 	 * purchase()
 	 * 
@@ -67,35 +146,36 @@ public class Server {
 	 * if product not in storage, returns : "Not Available - We do not sell this product"
 	 * Upon success, reply with "Your order has been placed, <order-id> <user-name> <product-name> <quantity>" 
 	 *      then, update the inventory.
+	 * The stock count is taken with a compare-and-set. No lock is held.
+	 * @param orderId id the log derived for this purchase. the same on every replica.
+	 * @param user symbol id of the user.
+	 * @param product symbol id of the product, or -1 if we do not sell it.
 	 */
-	public synchronized String purchase(String username, String product, Integer quantity) {
+	public String purchase(int orderId, int user, int product, int quantity) {
 		String response = "";
-		
-		List<Order> cart; // user's checkout cart
-		if (users.containsKey(username)) {
-			cart = users.get(username);
-		} else {
-			cart = new ArrayList<Order>();
-			users.put(username, cart);
-		}
-		
-		Integer count = inventory.get(product);
-		if (!inventory.containsKey(product)) {
+		boolean taken = false;
+		if (product < 0) {
 			response = "Not Available - We do not sell this product";
-		} else if (count < quantity) {
-			response = "Not Available - Not enough items";
-		} else if (quantity < 0) {
-			response = "Not Available - Negative purchases are not allowed";
 		} else {
-			// update inventory.
-			inventory.put(product, count - quantity);
+			while (!taken) {
+				int count = inventory.get(product);
+				if (count < quantity) {
+					response = "Not Available - Not enough items";
+					break;
+				} else if (quantity < 0) {
+					response = "Not Available - Negative purchases are not allowed";
+					break;
+				}
+				taken = inventory.compareAndSet(product, count, count - quantity); // update inventory.
+			}
+		}
+		if (taken) {
+			version.incrementAndGet(); // the cached list is stale.
 			
 			// add user order to cart.
-			Order order = new Order(product, quantity);
-			order.setUser(username);
-			orders.put(order.getId(), order);
-			cart.add(order);
-			response = String.format("Your order has been placed, %s", order.toString());
+			orders.add(orderId, user, product, quantity);
+			response = String.format("Your order has been placed, %d %s %s %d",
+				orderId, users.getName(user), products.getName(product), quantity);
 		}
 		
 		return response.trim();
@@ -108,22 +188,15 @@ public class Server {
 	 * if no existing order: prints "<order-id> not  found,  no  such  order"
 	 * otherwise, replies: "Order <order-id> is canceled" and updates the inventory.
 	 */
-	public synchronized String cancel(Integer orderId) {
+	public String cancel(Integer orderId) {
 		String response = "";
-		if (!orders.containsKey(orderId)) {
+		int[] order = orders.remove(orderId); // {product, quantity}. also leaves the user's cart.
+		if (order == null) {
 			response = String.format("%d not  found,  no  such  order", orderId);
 		} else {
-			// remove order from cart and records.
-			Order order = orders.get(orderId);
-			String user = order.getUser();
-			List<Order> cart = users.get(user);
-			orders.remove(orderId);
-			cart.remove(order);
-			
 			// update inventory.
-			String product = order.getProduct();
-			int count = inventory.get(product) + order.getQuantity();
-			inventory.put(product, count);
+			inventory.getAndAdd(order[0], order[1]);
+			version.incrementAndGet(); // the cached list is stale.
 			
 			response = String.format("Order %d is canceled", orderId);
 		}
@@ -138,20 +211,28 @@ public class Server {
 	 * if no existing orders for the user: prints "No order found for <user-name>"
 	 * Otherwise, all orders of the user as "<order-id>, <product-name>, <quantity>"
 	 */
-	public synchronized String search(String username) {
-		String response = "";
-		List<Order> cart = users.get(username);
-		if (!users.containsKey(username) || cart.isEmpty()) {
-			response = String.format("No order found for %s", username);
-		} else {
-			for (Order order : cart) {
-				Integer id = order.getId();
-				String product = order.getProduct();
-				Integer quantity = order.getQuantity();
-				response += String.format("%d %s %s\n", id, product, quantity);
-			}
+	public String search(String username) {
+		StringWriter response = new StringWriter();
+		search(username, new PrintWriter(response));
+		return response.toString().trim();
+	}
+	
+	/**
+	 * search()
+	 * 
+	 * Writes the user's orders to a stream, one per line, without building the whole response. <br>
+	 * if no existing orders for the user: prints "No order found for <user-name>" <br>
+	 * The caller flushes the stream once the response is complete.
+	 */
+	public void search(String username, PrintWriter out) {
+		Integer user = users.lookup(username);
+		int[] rows = (user == null) ? new int[0] : orders.snapshot(user); // {id, product, quantity} per order.
+		for (int idx = 0; idx < rows.length; idx += 3) {
+			out.println(rows[idx] + " " + products.getName(rows[idx + 1]) + " " + rows[idx + 2]);
+		}
+		if (rows.length == 0) {
+			out.println("No order found for " + username);
 		}
-		return response.trim();
 	}
 	
 	/**
@@ -159,18 +240,74 @@ public class Server {
 	 * <b>format</b>: <product-name> <quantity>   <br>
 	 * prints sold out items with quantity 0. <br>
 	 * each product string is on a separate line.
+	 * Takes no lock. each count is read as of its own last update.
+	 * The response is cached until the next purchase or cancel changes the stock.
 	 */
-	public synchronized String list() {
-		String response = "";
-		for (Entry<String, Integer> record : inventory.entrySet()) {
-			String product = record.getKey();
-			Integer quantity = record.getValue();
-			
+	public String list() {
+		long current = version.get();
+		CatalogView view = catalog;
+		if (view.version == current) {
+			return view.text;
+		}
+		
+		StringBuilder response = new StringBuilder();
+		for (int id = 0; id < products.size(); id++) {
 			// print product record
-			String output = String.format("%s %d\n", product, quantity);
-			response += output;
+			response.append(products.getName(id)).append(' ').append(inventory.get(id)).append('\n');
 		}
-		return response.trim();
+		
+		// a change made while rendering bumped the version, so the next list renders again.
+		view = new CatalogView(current, response.toString().trim());
+		catalog = view;
+		return view.text;
+	}
+	
+	/**
+	 * writeSnapshot()
+	 * 
+	 * Writes the store: stock counts, user names and orders. <br>
+	 * The caller makes sure no command is applied meanwhile.
+	 */
+	public void writeSnapshot(DataOutputStream out) throws IOException {
+		out.writeInt(products.size());
+		for (int id = 0; id < products.size(); id++) {
+			out.writeUTF(products.getName(id));
+			out.writeInt(inventory.get(id));
+		}
+		users.write(out);
+		orders.write(out);
+	}
+	
+	/**
+	 * resetStore()
+	 * 
+	 * Drops every user and order, before a snapshot is read in. <br>
+	 */
+	public void resetStore() {
+		users = new SymbolTable();
+		orders = new OrderTable();
+	}
+	
+	/**
+	 * readSnapshot()
+	 * 
+	 * Restores the store written by writeSnapshot(), over the freshly loaded inventory. <br>
+	 */
+	public void readSnapshot(DataInputStream in) throws IOException {
+		int count = in.readInt();
+		if (count != products.size()) {
+			throw new IOException("snapshot has " + count + " products, the inventory has " + products.size());
+		}
+		for (int id = 0; id < count; id++) {
+			String product = in.readUTF();
+			if (!product.equals(products.getName(id))) {
+				throw new IOException("snapshot product " + product + " is not in the inventory");
+			}
+			inventory.set(id, in.readInt());
+		}
+		users.read(in);
+		orders.read(in);
+		version.incrementAndGet();
 	}
 	
 	/**
@@ -179,6 +316,18 @@ public class Server {
 	public void init() {
 		messenger.init();
 		load(filename);
+		if (ServerConfig.DURABLE_LOG) { // rebuild the orders an earlier run decided.
+			File wal = new File(ServerConfig.DATA_DIR, "server" + messenger.getServerId() + ".wal");
+			File acceptor = new File(ServerConfig.DATA_DIR, "server" + messenger.getServerId() + ".acceptor");
+			File snapshot = new File(ServerConfig.DATA_DIR, "server" + messenger.getServerId() + ".snapshot");
+			try {
+				log.recover(snapshot, new Journal(wal));
+				messenger.recover(new Journal(acceptor)); // keep the promises made before a crash.
+			} catch (IOException e) {
+				System.err.println("Could not open the server journals in " + ServerConfig.DATA_DIR);
+				e.printStackTrace();
+			}
+		}
 	}
 	
 	/**
@@ -186,18 +335,26 @@ public class Server {
 	 * Starts the Messenger Service. <br>
 	 */
 	public void start() {
+		timer.start();
 		messenger.start();
+		batcher.start();
+		transfer.catchUp(null); // fetch what the cluster decided while we were down.
+		if (ServerConfig.READ_CONSISTENCY.equals("lease")) {
+			new LeaseRenewer(this).start();
+		}
 	}
 	
 	/** 
 	 * Load inventory file from custom source. <br>
+	 * Interns each product name into a dense id, in file order.
 	 */
-	public synchronized void load(String filename) {
+	public void load(String filename) {
 		try (FileInputStream fstream = new FileInputStream(filename);
 			InputStreamReader istream = new InputStreamReader(fstream);
 			BufferedReader reader = new BufferedReader(istream)) {
 			
 			// load product map from inventory file
+			Map<String, Integer> counts = new LinkedHashMap<String, Integer>();
 			String line = "";
 			String product = "";
 			Integer quantity = 0;
@@ -208,10 +365,17 @@ public class Server {
 					quantity = Integer.parseInt(tokens[1]);
 					
 					// update product record
-					inventory.put(product, quantity);
+					counts.put(product, quantity);
 				}
 			}
 			
+			// intern the catalog.
+			inventory = new AtomicIntegerArray(counts.size());
+			for (Map.Entry<String, Integer> record : counts.entrySet()) {
+				inventory.set(products.intern(record.getKey()), record.getValue());
+			}
+			version.incrementAndGet();
+			
 		} catch (IOException e) {
 			System.err.println("Could not read input server file.");
 			e.printStackTrace();
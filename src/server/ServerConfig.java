@@ -0,0 +1,110 @@
+package server;
+
+/** ServerConfig
+ * Tunable server settings. <br>
+ * Each setting is read once from a JVM system property, e.g. -Dpaxos.multi=false
+ *
+ * By: Gaurav Nagar, Hari Kosuru,
+ * Taylor Schmidt, and Ronald Macmaster.
+ * UT-EIDs: gn3544, hk8633, trs2277,  rpm953
+ * Date: 4/24/2017
+ */
+public final class ServerConfig {
+	
+	/**
+	 * Multi-Paxos mode. <br>
+	 * The leader keeps its ballot across rounds and skips phase 1 until it is preempted.
+	 * Followers relay their writes to the leader.
+	 */
+	public static final boolean MULTI_PAXOS = getBoolean("paxos.multi", true);
+	
+	/** most client writes decided together in one paxos instance. */
+	public static final int BATCH_SIZE = getInt("paxos.batch.size", 32);
+	
+	/** milliseconds the batcher waits for a batch to fill once a write is pending. 0 proposes right away. */
+	public static final int BATCH_LINGER = getInt("paxos.batch.linger", 0);
+	
+	/** most paxos slots a server proposes at once. slot N+1 is proposed while slot N is in its accept phase. */
+	public static final int PAXOS_WINDOW = getInt("paxos.window", 4);
+	
+	/** milliseconds a proposer waits for silent acceptors before resending a phase message. */
+	public static final int RETRANSMIT_TIMEOUT = getInt("paxos.retransmit", 100);
+	
+	/** milliseconds a leader lease lasts. acceptors refuse other proposers' prepares for that long. */
+	public static final int LEASE_TIMEOUT = getInt("paxos.lease", 2000);
+	
+	/** milliseconds a client write waits for its response before the session gives up on it. 0 waits forever. */
+	public static final int REQUEST_TIMEOUT = getInt("server.request.timeout", 10000);
+	
+	/**
+	 * Consistency of list / search. <br>
+	 * local: answered from this replica's memory, possibly stale. <br>
+	 * lease: linearizable. answered by the lease holding leader. followers relay the read to it. <br>
+	 * index: linearizable. answered by any replica once it has applied the slot a majority reports.
+	 */
+	public static final String READ_CONSISTENCY = getString("read.consistency", "local");
+	
+	/** threads applying the independent commands of a batch. 1 applies every batch in order on one thread. */
+	public static final int APPLY_THREADS = getInt("server.apply.threads", Runtime.getRuntime().availableProcessors());
+	
+	/** journal decided slots and acceptor promises to disk, and replay them on restart. */
+	public static final boolean DURABLE_LOG = getBoolean("server.wal", true);
+	
+	/** decided slots between snapshots of the store. a snapshot lets the journal drop the slots it covers. */
+	public static final int SNAPSHOT_INTERVAL = getInt("server.snapshot.interval", 1000);
+	
+	/** directory of the server's journal files. */
+	public static final String DATA_DIR = getPath("server.data", "data");
+	
+	/**
+	 * Client front end. <br>
+	 * thread: one blocking ServerThread per client connection. <br>
+	 * selector: one selector thread for every connection. commands run on a pool of TCP_WORKERS threads.
+	 */
+	public static final String TCP_MODE = getString("server.tcp", "thread");
+	
+	/** selector mode: threads answering client commands. a command waiting on paxos holds one. */
+	public static final int TCP_WORKERS = getInt("server.tcp.workers", 128);
+	
+	/** threads of client sessions and UDP handlers. platform, or virtual (Java 21). */
+	public static final String THREAD_MODE = getString("server.threads", "platform");
+	
+	/** threads servicing server-server datagrams. */
+	public static final int UDP_WORKERS = getInt("udp.workers", Runtime.getRuntime().availableProcessors());
+	
+	/** received datagrams waiting for a worker. past it, datagrams are dropped until the workers catch up. */
+	public static final int UDP_QUEUE = getInt("udp.queue", 1024);
+	
+	/** largest server-server datagram in bytes. batches are capped to leave room for the message header. */
+	public static final int DATAGRAM_SIZE = getInt("udp.datagram.size", 8192);
+	
+	private ServerConfig() {
+		// static settings only.
+	}
+	
+	private static String getString(String key, String fallback) {
+		String value = System.getProperty(key);
+		return (value == null) ? fallback : value.trim().toLowerCase();
+	}
+	
+	private static String getPath(String key, String fallback) {
+		String value = System.getProperty(key);
+		return (value == null) ? fallback : value.trim();
+	}
+	
+	private static int getInt(String key, int fallback) {
+		String value = System.getProperty(key);
+		try {
+			return (value == null) ? fallback : Integer.parseInt(value.trim());
+		} catch (NumberFormatException err) {
+			System.err.format("Bad value for %s: %s. using %d.%n", key, value, fallback);
+			return fallback;
+		}
+	}
+	
+	private static boolean getBoolean(String key, boolean fallback) {
+		String value = System.getProperty(key);
+		return (value == null) ? fallback : Boolean.parseBoolean(value.trim());
+	}
+
+}
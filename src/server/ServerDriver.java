@@ -33,7 +33,7 @@ public class ServerDriver {
 				String input = reader.readLine();
 				if (input.startsWith("prepare")) {
 					System.out.println("[prepare command]");
-					messenger.proposePrepare(new LamportClock(777, 777));
+					messenger.proposePrepare(server.getLog().getFirstUndecided(), new LamportClock(777, 777));
 				} else if (input.startsWith("exit")) {
 					System.out.println("[exit command]");
 					System.exit(0);
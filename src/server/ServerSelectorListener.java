@@ -0,0 +1,408 @@
+package server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import model.Frame;
+
+/** ServerSelectorListener
+ * Non-blocking front end for e-commerce clients, for -Dserver.tcp=selector.
+ * One thread and one selector serve every connection, so an idle client costs a socket and a buffer, not a thread.
+ * Commands are read into a ByteBuffer and split into lines. A connection answers its commands one at a time,
+ * on a pool of worker threads, and its responses are written as the socket drains.
+ * While a command runs, the selector sends the client a "ping" every 50ms, like a ServerThread does.
+ * A client that sends the line "framed" switches its connection to frames (see model.Frame):
+ * then its commands run side by side, and each response is sent as soon as it is ready.
+ * A connection is not read while QUEUE_LIMIT of its commands wait, or QUEUE_LIMIT responses wait for the socket,
+ * so a client that sends faster than it reads only fills its own socket buffers.
+ *
+ * By: Gaurav Nagar, Hari Kosuru,
+ * Taylor Schmidt, and Ronald Macmaster.
+ * UT-EIDs: gn3544, hk8633, trs2277,  rpm953
+ * Date: 4/29/2017
+ */
+public class ServerSelectorListener extends Thread {
+
+	// milliseconds between the keep-alive pings of a busy connection.
+	private static final long PING_INTERVAL = 50;
+
+	// longest command line. a client that sends more is disconnected.
+	private static final int MAX_LINE = 64 * 1024;
+
+	// most commands of one framed connection running at once. past it, the connection is not read.
+	private static final int PIPELINE_LIMIT = 64;
+
+	// most text commands waiting to start, or buffers waiting for the socket. past it, the connection is not read.
+	private static final int QUEUE_LIMIT = 64;
+
+	private static final byte[] PING = ("ping" + System.lineSeparator()).getBytes();
+	private static final byte[] PING_FRAME = Frame.ping().toBytes();
+	private static final byte[] HANDSHAKE = (Frame.HANDSHAKE + System.lineSeparator()).getBytes();
+
+	private int port;
+	private Server server;
+	private ServerThread handler; // answers commands. shared: it keeps no per-connection state.
+	private ExecutorService workers;
+	private Selector selector;
+
+	// selector thread only.
+	private ByteBuffer buffer = ByteBuffer.allocate(8192);
+	private Set<Connection> busy = new HashSet<Connection>(); // connections with a command running.
+
+	// connections whose command a worker finished. handed back to the selector thread.
+	private ConcurrentLinkedQueue<Connection> finished = new ConcurrentLinkedQueue<Connection>();
+
+	/** Connection
+	 * A client socket and its command and response queues. <br>
+	 * Touched by the selector thread only, except for the responses the workers hand over.
+	 */
+	private static class Connection {
+
+		private SocketChannel channel;
+		private SelectionKey key;
+		private ByteArrayOutputStream line = new ByteArrayOutputStream(); // partial command line.
+		private ByteBuffer inbox = null; // partial frames, once the connection is framed.
+		private boolean framed = false;
+		private LinkedList<String> commands = new LinkedList<String>(); // received, not yet started. text only.
+		private LinkedList<ByteBuffer> output = new LinkedList<ByteBuffer>(); // waiting for the socket.
+		private ByteBuffer ping = null; // keep-alive in the output, not yet written.
+		private int running = 0; // commands the workers are answering. at most one for text.
+		private boolean closing = false; // close once the output is written.
+		private boolean closed = false;
+
+		// handed over by the workers.
+		private ConcurrentLinkedQueue<byte[]> responses = new ConcurrentLinkedQueue<byte[]>();
+		private volatile boolean hangup = false;
+
+		private Connection(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		private void finish(byte[] response, boolean hangup) {
+			if (hangup) {
+				this.hangup = true;
+			}
+			responses.add(response);
+		}
+
+		private void queue(byte[] bytes) {
+			output.add(ByteBuffer.wrap(bytes));
+		}
+	}
+
+	/** ServerSelectorListener <br>
+	 *
+	 * Constructs a new ServerSelectorListener Object. <br>
+	 */
+	public ServerSelectorListener(Server server, int port) {
+		super("tcp-selector");
+		this.port = port;
+		this.server = server;
+		this.handler = new ServerThread(server);
+		this.workers = Executors.newFixedThreadPool(Math.max(1, ServerConfig.TCP_WORKERS));
+	}
+
+	public void run() {
+		try (ServerSocketChannel acceptor = ServerSocketChannel.open(); Selector selector = Selector.open()) {
+			this.selector = selector;
+			acceptor.bind(new InetSocketAddress(port));
+			acceptor.configureBlocking(false);
+			acceptor.register(selector, SelectionKey.OP_ACCEPT);
+
+			long pinged = System.currentTimeMillis();
+			while (true) { // listen for tcp clients
+				selector.select(PING_INTERVAL);
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (key.isValid() && key.isAcceptable()) {
+						accept(acceptor);
+						continue;
+					}
+
+					Connection conn = (Connection) key.attachment();
+					try {
+						if (key.isValid() && key.isReadable()) {
+							read(conn);
+						}
+						if (key.isValid() && key.isWritable()) {
+							write(conn);
+						}
+					} catch (IOException err) { // client went away.
+						close(conn);
+					}
+				}
+
+				// responses the workers finished.
+				Connection conn = null;
+				while ((conn = finished.poll()) != null) {
+					complete(conn);
+				}
+
+				// keep-alive pings for the commands still running.
+				long now = System.currentTimeMillis();
+				if (now - pinged >= PING_INTERVAL) {
+					for (Connection running : busy) {
+						if (running.ping == null) { // a client that is not reading gets one ping, not one per interval.
+							running.ping = ByteBuffer.wrap(running.framed ? PING_FRAME : PING);
+							running.output.add(running.ping);
+						}
+						flush(running);
+					}
+					pinged = now;
+				}
+			}
+		} catch (IOException e) {
+			System.out.println("Error listening on TCP Socket. exiting...");
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * accepts a client and registers it for reading. <br>
+	 */
+	private void accept(ServerSocketChannel acceptor) throws IOException {
+		SocketChannel channel = acceptor.accept();
+		if (channel == null) {
+			return;
+		}
+		channel.configureBlocking(false);
+		Connection conn = new Connection(channel);
+		conn.key = channel.register(selector, SelectionKey.OP_READ, conn);
+	}
+
+	/**
+	 * reads what the client sent, and starts each complete command line. <br>
+	 * The line "framed" on an idle connection switches the rest of the input to frames.
+	 */
+	private void read(Connection conn) throws IOException {
+		buffer.clear();
+		if (conn.channel.read(buffer) < 0) {
+			close(conn);
+			return;
+		}
+		buffer.flip();
+		while (buffer.hasRemaining() && !conn.framed) {
+			byte next = buffer.get();
+			if (next == '\n') {
+				String command = new String(conn.line.toByteArray());
+				conn.line.reset();
+				command = command.endsWith("\r") ? command.substring(0, command.length() - 1) : command;
+				if (command.equals(Frame.HANDSHAKE) && conn.commands.isEmpty() && conn.running == 0) {
+					System.out.println("TCP Service: " + command);
+					conn.framed = true;
+					conn.inbox = ByteBuffer.allocate(buffer.capacity());
+					conn.queue(PING);
+					conn.queue(HANDSHAKE);
+				} else {
+					conn.commands.add(command);
+				}
+			} else if (conn.line.size() < MAX_LINE) {
+				conn.line.write(next);
+			} else {
+				System.err.println("Client command line too long. disconnecting.");
+				close(conn);
+				return;
+			}
+		}
+		if (conn.framed) {
+			readFrames(conn);
+		} else {
+			if (conn.running == 0) {
+				start(conn);
+			}
+			flush(conn); // stops reading once the queue is full.
+		}
+	}
+
+	/**
+	 * adds the rest of the read buffer to the connection's frames, and runs each complete command frame. <br>
+	 */
+	private void readFrames(Connection conn) throws IOException {
+		if (conn.inbox.remaining() < buffer.remaining()) { // grow. it holds at most one partial command frame and one read.
+			ByteBuffer inbox = ByteBuffer.allocate(Math.max(2 * conn.inbox.capacity(), conn.inbox.position() + buffer.remaining()));
+			conn.inbox.flip();
+			conn.inbox = inbox.put(conn.inbox);
+		}
+		conn.inbox.put(buffer);
+		conn.inbox.flip();
+		try {
+			Frame frame = null;
+			while (!conn.closing && (frame = Frame.read(conn.inbox, Frame.MAX_COMMAND)) != null) {
+				if (frame.getType() != Frame.COMMAND) {
+					continue; // clients send commands only.
+				}
+				System.out.println("TCP Service: " + frame.getPayload());
+				if (frame.getPayload().equals("exit")) { // finished session. answer what is still running first.
+					conn.closing = true;
+				} else {
+					execute(conn, frame.getId(), frame.getPayload());
+				}
+			}
+		} finally {
+			conn.inbox.compact();
+		}
+		flush(conn);
+	}
+
+	/**
+	 * starts the connection's next command on a worker. <br>
+	 * The client is pinged first, like a ServerThread does.
+	 * Waits while QUEUE_LIMIT buffers are unsent: write() starts it once they drain.
+	 */
+	private void start(final Connection conn) {
+		if (conn.output.size() >= QUEUE_LIMIT) {
+			return;
+		}
+		final String command = conn.commands.poll();
+		if (command == null || conn.closing) {
+			return;
+		}
+		conn.queue(PING); // 100ms acknowledgement.
+		System.out.println("TCP Service: " + command);
+
+		// finished session.
+		if (command.equals("exit")) {
+			conn.closing = true;
+			conn.commands.clear();
+			flush(conn);
+			return;
+		}
+
+		execute(conn, 0, command);
+		flush(conn);
+	}
+
+	/**
+	 * answers a command on a worker, and hands the response back to the selector. <br>
+	 * A framed response is one frame with the command's id. A text response ends with "EOT".
+	 */
+	private void execute(final Connection conn, final int id, final String command) {
+		final boolean framed = conn.framed;
+		conn.running += 1;
+		busy.add(conn);
+		workers.execute(new Runnable() {
+			@Override
+			public void run() {
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				PrintWriter ostream = new PrintWriter(bytes);
+				boolean hangup = false;
+				try {
+					if (!framed && command.startsWith("sync")) { // a lagging peer fetches our state. binary, then we hang up.
+						server.getStateTransfer().serve(Integer.parseInt(command.split("\\s+")[1]), bytes);
+						hangup = true;
+					} else {
+						handler.serviceCommand(command, ostream, conn.channel.socket().getInetAddress());
+						if (!framed) {
+							ostream.println("EOT");
+						}
+					}
+				} catch (IOException | InterruptedException | RuntimeException err) {
+					System.out.println("Error servicing TCP Client request: " + err);
+					hangup = true;
+				}
+				ostream.flush();
+				byte[] response = framed ? new Frame(Frame.RESPONSE, id, bytes.toString().trim()).toBytes() : bytes.toByteArray();
+				conn.finish(response, hangup);
+				finished.add(conn);
+				selector.wakeup();
+			}
+		});
+	}
+
+	/**
+	 * queues the finished responses, then starts the next text command. <br>
+	 */
+	private void complete(Connection conn) {
+		byte[] response = null;
+		while ((response = conn.responses.poll()) != null) {
+			conn.running -= 1;
+			if (!conn.closed) {
+				conn.queue(response);
+			}
+		}
+		if (conn.running == 0) {
+			busy.remove(conn);
+		}
+		if (conn.closed) {
+			return;
+		}
+		if (conn.hangup) {
+			conn.closing = true;
+			conn.commands.clear();
+		}
+		flush(conn);
+		if (!conn.framed && conn.running == 0) {
+			start(conn);
+		}
+	}
+
+	/**
+	 * asks the selector to write the connection's output. <br>
+	 * A closing connection stops reading, and closes once its commands are answered.
+	 * A framed connection stops reading while PIPELINE_LIMIT commands run,
+	 * and any connection while QUEUE_LIMIT commands or responses wait. It reads again once they drain.
+	 */
+	private void flush(Connection conn) {
+		if (conn.closed) {
+			return;
+		}
+		boolean full = conn.running >= PIPELINE_LIMIT || conn.commands.size() >= QUEUE_LIMIT || conn.output.size() >= QUEUE_LIMIT;
+		int interest = (conn.closing || full) ? 0 : SelectionKey.OP_READ;
+		conn.key.interestOps(conn.output.isEmpty() ? interest : interest | SelectionKey.OP_WRITE);
+		if (conn.output.isEmpty() && conn.closing && conn.running == 0) {
+			close(conn);
+		}
+	}
+
+	/**
+	 * writes as much queued output as the socket takes. <br>
+	 */
+	private void write(Connection conn) throws IOException {
+		while (!conn.output.isEmpty()) {
+			ByteBuffer next = conn.output.peek();
+			conn.channel.write(next);
+			if (next.hasRemaining()) {
+				return; // socket is full. wait for OP_WRITE.
+			}
+			conn.output.poll();
+			if (next == conn.ping) {
+				conn.ping = null;
+			}
+		}
+		if (!conn.framed && conn.running == 0) {
+			start(conn); // held back by the full output.
+		}
+		flush(conn);
+	}
+
+	private void close(Connection conn) {
+		if (conn.closed) {
+			return;
+		}
+		conn.closed = true;
+		busy.remove(conn);
+		conn.key.cancel();
+		try {
+			conn.channel.close();
+		} catch (IOException err) {
+			System.err.println("Could not close a client connection: " + err.getMessage());
+		}
+	}
+
+}
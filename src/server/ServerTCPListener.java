@@ -31,7 +31,7 @@ public class ServerTCPListener extends Thread {
 			while (true) { // listen for tcp clients
 				Socket client = socket.accept();
 				ServerThread worker = new ServerThread(server, client);
-				worker.start();
+				ThreadStarter.start(worker);
 			}
 		} catch (IOException e) {
 			System.out.println("Error listening on TCP Socket. exiting...");
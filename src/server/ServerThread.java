@@ -1,20 +1,31 @@
 package server;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.net.DatagramPacket;
-import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 import java.util.Random;
-import java.util.concurrent.ThreadLocalRandom;
-import java.util.concurrent.locks.ReentrantLock;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import messenger.ServerMessenger;
+import model.AcceptorMessage;
+import model.Frame;
 import model.LamportClock;
+import model.LearnerMessage;
+import model.ProposalMessage;
 import model.ServerTag;
 
 /** ServerThread
@@ -29,18 +40,31 @@ public class ServerThread extends Thread {
 	
 	private Server server;
 	private ServerMessenger messenger;
-	private static ReentrantLock requestLock = new ReentrantLock(true);
 	
 	private Socket socket;
 	private DatagramPacket packet;
 	private ConnectionMode mode;
 
 	private enum ConnectionMode {
-		TCP, UDP
+		TCP, UDP, SHARED
 	};
 	
-	// KeepAliveThread pinger
-	private KeepAliveThread pinger;
+	// most commands of one framed session running at once.
+	private static final int PIPELINE_LIMIT = 64;
+	private PrintWriter session; // client stream of a blocking socket. null when shared.
+	private KeepAlive pinger; // pings the session while a command blocks.
+	
+	// milliseconds a quorum read waits for its read index to be applied before committing a noop.
+	private static final long READ_INDEX_TIMEOUT = 4 * ServerConfig.RETRANSMIT_TIMEOUT;
+	
+	// response to a quorum read that could not catch up with a majority in time.
+	private static final String READ_FAILED = "Read timed out: could not reach a majority. try again.";
+	
+	// response to a write the leader took but never answered. it may be decided: proposing it again could apply it twice.
+	private static final String RELAY_UNKNOWN = "Request outcome unknown: the leader stopped answering. search to confirm it.";
+	
+	// response to a lease read on a leader that could not renew its lease in time.
+	private static final String LEASE_FAILED = "Read timed out: could not renew the leader lease. try again.";
 	
 	/** ServerThread <br>
 	 * Constructs a new ServerThread Object. <br>
@@ -53,6 +77,18 @@ public class ServerThread extends Thread {
 		this.mode = ConnectionMode.TCP;
 	}
 	
+	/** ServerThread <br>
+	 * Constructs a new ServerThread Object. <br>
+	 * Shared by the listeners that own their sockets. Never started:
+	 * ServerSelectorListener calls serviceCommand() and sends the keep-alive pings,
+	 * ServerUDPListener's workers call serviceUDP(packet).
+	 */
+	public ServerThread(Server server) {
+		this.server = server;
+		this.messenger = server.getMessenger();
+		this.mode = ConnectionMode.SHARED;
+	}
+	
 	/** ServerThread <br>
 	 * Constructs a new ServerThread Object. <br>
 	 * Services a UDP packet.
@@ -80,14 +116,14 @@ public class ServerThread extends Thread {
 	 */
 	public void serviceTCP() {
 		try (InputStreamReader istream = new InputStreamReader(socket.getInputStream());
-			PrintWriter ostream = new PrintWriter(socket.getOutputStream(), true);
+			PrintWriter ostream = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream())));
 			BufferedReader reader = new BufferedReader(istream);) {
 			
 			// continually service tcp connection.
-			String command = "", response = "";
+			String command = "";
+			session = ostream;
 			while ((command = reader.readLine()) != null) {
-				pinger = new KeepAliveThread(ostream); // keep alive thread
-				ostream.println("ping"); // 100ms acknowledgement.
+				ping(ostream); // 100ms acknowledgement.
 				System.out.println("TCP Service: " + command);
 				
 				// finished session.
@@ -96,28 +132,28 @@ public class ServerThread extends Thread {
 					break; // finished socket execution.
 				}
 				
-				// commands that require acknowledgement.
-				else if (command.startsWith("purchase") || command.startsWith("cancel")) {
-					pinger.start();
-					requestLock.lock(); // request critical section
-					while (!messenger.proposal(command)) {
-						sleep(50* ThreadLocalRandom.current().nextInt(2, 5 + 1));
-					}
-					response = execute(command);
-					messenger.incrementClock();
-					messenger.receiveLearnedValue(command);
-					requestLock.unlock(); // release critical section
-					pinger.kill();
-					ostream.println(response);
-					ostream.println("EOT");
+				// a lagging peer fetches our state. binary, then the peer hangs up.
+				else if (command.startsWith("sync")) {
+					ostream.flush();
+					server.getStateTransfer().serve(Integer.parseInt(command.split("\\s+")[1]), socket.getOutputStream());
+					socket.close();
+					break;
+				}
+				
+				// the client switches this session to frames. it waits for our answer before its first frame.
+				else if (command.equals(Frame.HANDSHAKE)) {
+					ostream.println(Frame.HANDSHAKE);
+					ostream.flush();
+					session = null; // commands run side by side now. the session pings for all of them.
+					serviceFramed();
+					break;
 				}
 				
-				// thread-safe commands.
-				else { // execute server command. (list or search)
-					response = execute(command);
-					ostream.println(response);
+				// client commands.
+				else {
+					serviceCommand(command, ostream, socket.getInetAddress());
 					ostream.println("EOT");
-					messenger.incrementClock();
+					ostream.flush(); // one write for the whole response.
 				}
 			}
 		} catch (IOException err) {
@@ -128,92 +164,392 @@ public class ServerThread extends Thread {
 		}
 	}
 	
+	/** serviceFramed()
+	 * 
+	 * Services a framed session on the socket, until the client hangs up or sends "exit". <br>
+	 * Each command runs on a thread of its own, so a pipelined command does not wait for the ones before it.
+	 * Its response goes out as soon as it is ready, tagged with the command's id.
+	 * While any command runs, the client is sent a ping frame every 50ms.
+	 */
+	private void serviceFramed() throws IOException, InterruptedException {
+		final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		final AtomicInteger running = new AtomicInteger(0);
+		final Semaphore window = new Semaphore(PIPELINE_LIMIT); // commands in flight. the reader stops past it.
+		KeepAlive pings = new KeepAlive(new Runnable() {
+			@Override
+			public void run() {
+				if (running.get() > 0) {
+					send(out, Frame.ping());
+				}
+			}
+		}, socket);
+		pings.start(server.getTimer());
+		
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			Frame frame = null;
+			while ((frame = Frame.read(in, Frame.MAX_COMMAND)) != null) {
+				final int id = frame.getId();
+				final String command = frame.getPayload();
+				if (frame.getType() != Frame.COMMAND) {
+					continue; // clients send commands only.
+				}
+				System.out.println("TCP Service: " + command);
+				
+				// finished session. answer what is still running first.
+				if (command.equals("exit")) {
+					break;
+				}
+				
+				window.acquire();
+				running.incrementAndGet();
+				ThreadStarter.start(new Runnable() {
+					@Override
+					public void run() {
+						StringWriter response = new StringWriter();
+						try {
+							serviceCommand(command, new PrintWriter(response), socket.getInetAddress());
+						} catch (InterruptedException | RuntimeException err) {
+							System.out.println("Error servicing TCP Client request: " + err);
+							response.write("Error servicing request: " + err);
+						}
+						send(out, new Frame(Frame.RESPONSE, id, response.toString().trim()));
+						running.decrementAndGet();
+						window.release();
+					}
+				});
+			}
+			window.acquire(PIPELINE_LIMIT);
+		} finally {
+			socket.close(); // unblocks a ping stuck on a client that stopped reading.
+			pings.stop();
+		}
+	}
+	
+	/**
+	 * writes one frame. frames of concurrent commands and pings never interleave. <br>
+	 */
+	private void send(DataOutputStream out, Frame frame) {
+		synchronized (out) {
+			try {
+				out.write(frame.toBytes());
+				out.flush();
+			} catch (IOException err) { // the client went away. the reader sees it too.
+				System.err.println("Could not send a frame to the client: " + err.getMessage());
+			}
+		}
+	}
+	
+	/** serviceCommand()
+	 * 
+	 * Answers one client command, after its "ping" went out. <br>
+	 * Writes the response. A text session ends it with "EOT", a framed one sends it as one frame.
+	 * A "relay" prefix is honored only from the address of a member. From anyone else
+	 * the command is served like any client's, so a client cannot make a follower propose.
+	 */
+	public void serviceCommand(String command, PrintWriter ostream, InetAddress peer) throws InterruptedException {
+		String response = "";
+		boolean relayed = command.startsWith("relay") && messenger.isMemberAddress(peer); // a follower forwarded this command to us.
+		command = command.startsWith("relay") ? command.substring("relay".length()).trim() : command;
+		
+		// this server's own counters. never relayed.
+		if (command.equals("stats")) {
+			ostream.println(messenger.getStats());
+		}
+		
+		// commands that require acknowledgement.
+		else if (isWrite(command)) {
+			startPinger();
+			command = addMemberTag(command);
+			response = relayed ? null : relayToLeader(command);
+			if (response == null) { // we lead (or the leader is unreachable). propose it ourselves.
+				response = server.getBatcher().submit(command, ServerConfig.REQUEST_TIMEOUT);
+				messenger.incrementClock();
+			}
+			stopPinger();
+			ostream.println(response);
+		}
+		
+		// linearizable reads. only the lease holder answers them.
+		else if (ServerConfig.READ_CONSISTENCY.equals("lease")) {
+			startPinger();
+			response = relayed ? null : relayToLeader(command);
+			if (response == null) { // we lead. answer from memory once the lease is held.
+				boolean held = awaitLease();
+				stopPinger();
+				if (held) {
+					respond(command, ostream);
+				} else {
+					ostream.println(LEASE_FAILED);
+				}
+			} else {
+				stopPinger();
+				ostream.println(response);
+			}
+			messenger.incrementClock();
+		}
+		
+		// quorum reads. any replica answers once it has caught up with a majority.
+		else if (ServerConfig.READ_CONSISTENCY.equals("index")) {
+			startPinger();
+			boolean current = awaitReadIndex();
+			stopPinger();
+			if (current) {
+				respond(command, ostream);
+			} else {
+				ostream.println(READ_FAILED);
+			}
+			messenger.incrementClock();
+		}
+		
+		// thread-safe commands.
+		else { // execute server command. (list or search)
+			respond(command, ostream);
+			messenger.incrementClock();
+		}
+	}
+	
+	/** starts the keep-alive pings of a blocking socket. a selector connection has its pings sent by the listener. */
+	private void startPinger() {
+		if (session != null) {
+			final PrintWriter ostream = session;
+			pinger = new KeepAlive(new Runnable() {
+				@Override
+				public void run() {
+					ping(ostream);
+				}
+			}, socket);
+			pinger.start(server.getTimer());
+		}
+	}
+	
+	/**
+	 * sends a keep-alive line. the session stream is buffered, so it is flushed on its own. <br>
+	 */
+	private static void ping(PrintWriter ostream) {
+		ostream.println("ping");
+		ostream.flush();
+	}
+	
+	private void stopPinger() throws InterruptedException {
+		if (pinger != null) {
+			pinger.stop();
+			pinger = null;
+		}
+	}
+	
+	/** respond()
+	 * 
+	 * Writes the local response to a read (list or search). <br>
+	 * search streams the user's orders into the client's buffered stream, which is flushed once, at EOT.
+	 */
+	private void respond(String command, PrintWriter ostream) {
+		String[] tokens = command.trim().split("\\s+");
+		if (tokens.length == 2 && tokens[0].equalsIgnoreCase("search")) {
+			server.search(tokens[1], ostream);
+		} else {
+			ostream.println(execute(command));
+		}
+	}
+	
+	/** awaitLease()
+	 * 
+	 * Returns once this server may answer a read from memory under the leader lease. <br>
+	 * Without the lease, commits a noop first: once it is applied, every write
+	 * acknowledged before the read is visible here. The noop round also renews the lease.
+	 * returns false if the lease is still not held once the noop is done or timed out.
+	 */
+	private boolean awaitLease() throws InterruptedException {
+		if (!messenger.holdsLease()) {
+			server.getBatcher().submit("noop", ServerConfig.REQUEST_TIMEOUT);
+		}
+		return messenger.holdsLease();
+	}
+	
+	/** awaitReadIndex()
+	 * 
+	 * Returns once the log has applied the read index a majority reports. <br>
+	 * If no majority answers, or the missing slots do not arrive in time, asks the leader
+	 * to commit a noop, like a relayed write. Its learn fills the gaps in our log. Then asks again.
+	 * Only a server that knows no other leader commits the noop itself.
+	 * returns false if the read could not be served before the request timeout.
+	 */
+	private boolean awaitReadIndex() throws InterruptedException {
+		long timeout = (ServerConfig.REQUEST_TIMEOUT > 0) ? ServerConfig.REQUEST_TIMEOUT : Long.MAX_VALUE / 2;
+		long deadline = System.currentTimeMillis() + timeout;
+		while (true) {
+			int index = messenger.readIndex();
+			if (index >= 0 && server.getLog().awaitApplied(index, READ_INDEX_TIMEOUT)) {
+				return true;
+			}
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0) {
+				return false;
+			}
+			if (relayToLeader("noop") == null) { // we lead, or know no leader.
+				server.getBatcher().submit("noop", remaining);
+			}
+		}
+	}
+	
+	/** addMemberTag()
+	 * 
+	 * Completes "addserver <id>" with the address the server had when it was last a member. <br>
+	 * Every replica then applies the same tag, whether or not it knew the server.
+	 */
+	private String addMemberTag(String command) {
+		String[] tokens = command.trim().split("\\s+");
+		if (tokens.length == 2 && tokens[0].equalsIgnoreCase("addserver")) {
+			try {
+				ServerTag tag = messenger.getMemberTag(Integer.parseInt(tokens[1]));
+				return (tag == null) ? command : command.trim() + " " + tag;
+			} catch (NumberFormatException err) {
+				return command; // rejected when applied.
+			}
+		}
+		return command;
+	}
+	
+	/** relayToLeader()
+	 * 
+	 * Multi-Paxos: forwards a command to the leader's client port, so only the leader proposes. <br>
+	 * returns the leader's response, or null if this server should propose the command itself.
+	 * Only a leader that cannot be reached returns null. Once a write is sent, the leader may decide it
+	 * even if it never answers, so a lost answer is reported as unknown instead of proposed again here.
+	 */
+	private String relayToLeader(String command) {
+		Integer leaderId = messenger.getLeaderId();
+		if (!ServerConfig.MULTI_PAXOS || leaderId == null || leaderId.equals(messenger.getServerId()) || !messenger.isMember(leaderId)) {
+			return null;
+		}
+		
+		ServerTag tag = messenger.getServerTag(leaderId);
+		if (tag == null) { // leader is down.
+			return null;
+		}
+		
+		try (Socket leader = new Socket()) {
+			try {
+				leader.connect(new InetSocketAddress(tag.getAddress(), tag.getPort()), 100);
+			} catch (IOException err) {
+				System.err.format("Could not relay to leader %d. proposing locally.%n", leaderId);
+				return null;
+			}
+			
+			String line = "", response = "";
+			try {
+				leader.setSoTimeout(1000); // the leader pings every 50ms while it works.
+				BufferedReader in = new BufferedReader(new InputStreamReader(leader.getInputStream()));
+				PrintWriter out = new PrintWriter(leader.getOutputStream(), true);
+				out.println("relay " + command);
+				while ((line = in.readLine()) != null && !line.equals("EOT")) {
+					if (!line.equals("ping")) {
+						response += line + "\n";
+					}
+				}
+				out.println("exit");
+			} catch (IOException err) {
+				line = null;
+			}
+			if (line == null) { // sent, but not answered.
+				System.err.format("Leader %d stopped answering a relayed command.%n", leaderId);
+				return isWrite(command) ? RELAY_UNKNOWN : null; // a read is safe to serve here instead.
+			}
+			return response.trim();
+		} catch (IOException err) { // closing the socket.
+			return null;
+		}
+	}
+	
+	/**
+	 * true if a command changes the replicated state, and so goes through the log. <br>
+	 */
+	private static boolean isWrite(String command) {
+		return command.startsWith("purchase") || command.startsWith("cancel") || command.equals("noop") || ServerMessenger.isReconfiguration(command);
+	}
+	
 	/** serviceUDP()
 	  * 
 	  * Connection-less UDP packets. <br>
 	  * Sends a response packet.
 	  */
 	public void serviceUDP() {
-		String message = new String(packet.getData());
+		serviceUDP(packet);
+	}
+	
+	/** serviceUDP()
+	  * 
+	  * Services one received packet. <br>
+	  * Replies go out on the messenger's socket. The packet may be reused once this returns.
+	  */
+	public void serviceUDP(DatagramPacket packet) {
+		if (packet.getLength() >= packet.getData().length) { // filled the buffer: the rest of it may have been cut off.
+			System.err.println("Dropping a datagram that may be truncated. the sender retransmits.");
+			return;
+		}
+		String message = new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8);
+		Integer senderId = LamportClock.parseClock(message.split(" : ", 2)[0]).getProcessId();
 		message = messenger.parseMessage(message);
-		Integer senderId = messenger.getSenderId();
-		try (DatagramSocket socket = new DatagramSocket()) {
-			System.out.println("UDP Service: " + message);
-			
-			// Parse ServerTag for reply.
-			String returnAddress = packet.getAddress().getHostAddress();
-			String tagString = String.format("%s:%d", returnAddress, packet.getPort());
-			ServerTag tag = ServerTag.parse(tagString);
-			
-			// DEBUG: rec ping.. ignore message.
-			if (message.equals("ping")) {
-				System.out.println("Receieved a ping...");
-			}
-			
-			// proposer message for prepare / accept
-			if (message.startsWith("proposer")) {
-				messenger.ping(tag);
-				// System.out.format("recv proposer msg: [%s]%n", message);
-				
-				String command = null; // proposed command.
-				LamportClock number = null; // proposal number
-				if (message.startsWith("proposer prepare")) {
-					String prepareRegex = "prepare (\\(\\d+, \\d+\\))";
-					Pattern preparePattern = Pattern.compile(prepareRegex);
-					Matcher matcher = preparePattern.matcher(message);
-					matcher.find();
-					number = LamportClock.parseClock(matcher.group(1));
-					messenger.receiveProposerPrepare(senderId, number);
-				} else if (message.contains("proposer accept")) {
-					String acceptRegex = "accept \\[(.*?)\\] (\\(\\d+, \\d+\\))";
-					Pattern acceptPattern = Pattern.compile(acceptRegex);
-					Matcher matcher = acceptPattern.matcher(message);
-					matcher.find();
-					command = matcher.group(1);
-					number = LamportClock.parseClock(matcher.group(2));
-					messenger.receiveProposerAccept(senderId, number, command);
-				}
+		System.out.println("UDP Service: " + message);
+		
+		// proposer message for prepare / accept. the acceptor reply acknowledges it.
+		if (message.startsWith("proposer")) {
+			// System.out.format("recv proposer msg: [%s]%n", message);
+			ProposalMessage proposal = ProposalMessage.parse(message);
+			if (proposal.getType().equals("prepare")) {
+				messenger.receiveProposerPrepare(senderId, proposal.getSlot(), proposal.getNumber());
+			} else if (proposal.getType().equals("accept")) {
+				messenger.receiveProposerAccept(senderId, proposal.getSlot(), proposal.getNumber(), proposal.getCommand());
 			}
-			
-			// proposer message for prepare / accept
-			if (message.startsWith("acceptor")) {
-				messenger.ping(tag);				
-				String command = null; // proposed command.
-				LamportClock number = null; // proposal number
-				if (message.startsWith("acceptor accept") || message.startsWith("acceptor choose")) {
-					String acceptRegex = "\\[(.*?)\\] (\\(\\d+, \\d+\\)|null)";
-					Pattern acceptPattern = Pattern.compile(acceptRegex);
-					Matcher matcher = acceptPattern.matcher(message);
-					matcher.find();
-					command = matcher.group(1);
-					command = command.equals("null") ? null : command;
-					number = LamportClock.parseClock(matcher.group(2));
-					if(message.startsWith("acceptor accept"))
-						messenger.receiveAcceptorAccept(number, command);
-					else if(message.startsWith("acceptor choose"))
-						messenger.receiveAcceptorChoose(number, command);
-				}  else if (message.startsWith("acceptor reject")) {
-					messenger.receiveAcceptorReject();
-				}
+		}
+		
+		// acceptor message for prepare / accept
+		if (message.startsWith("acceptor")) {
+			AcceptorMessage reply = AcceptorMessage.parse(message);
+			if (reply == null) { // cut short in transit. never read as a shorter promise.
+				System.err.println("Dropping a malformed acceptor reply: " + message);
+			} else if (reply.getType().equals("accept")) {
+				messenger.receiveAcceptorAccept(senderId, reply.getSlot(), reply);
+			} else if (reply.getType().equals("choose")) {
+				messenger.receiveAcceptorChoose(senderId, reply.getSlot(), reply.getProposals());
+			} else if (reply.getType().equals("reject")) {
+				messenger.receiveAcceptorReject(senderId, reply.getSlot(), reply.getPhase());
 			}
+		}
 
-			// message for learner
-			if (message.startsWith("learn")) {
-				messenger.ping(tag);
-				String learnRegex = "learn \\[(.*?)\\]";
-				Pattern learnPattern = Pattern.compile(learnRegex);
-				Matcher matcher = learnPattern.matcher(message);
-				matcher.find();
-				String command = matcher.group(1);
-				
-				// fast-forward server.
-				execute(command);
-				messenger.receiveLearnedValue(command);
-			}
+		// message for learner
+		if (message.startsWith("learn")) {
+			LearnerMessage learned = LearnerMessage.parse(message);
 			
-		} catch (IOException err) {
-			System.err.println("Error servicing UDP request. exiting...");
-			err.printStackTrace();
+			// fast-forward server. the log applies it in slot order.
+			messenger.receiveLearnedValue(senderId, learned.getSlot(), learned.getCommand());
+		}
+		
+		// quorum read. a request is "readindex <id>", a reply "readindex <id> <slot>".
+		if (message.startsWith("readindex")) {
+			String[] tokens = message.split("\\s+");
+			if (tokens.length == 2) {
+				messenger.receiveReadIndex(senderId, Integer.parseInt(tokens[1]));
+			} else {
+				messenger.receiveReadIndex(senderId, Integer.parseInt(tokens[1]), Integer.parseInt(tokens[2]));
+			}
+		}
+		
+		// a peer dropped slots we need into a snapshot. fetch it.
+		if (message.startsWith("compacted")) {
+			int slot = Integer.parseInt(message.split("\\s+")[1]);
+			messenger.receiveCompacted(senderId, slot);
+		}
+		
+		// a peer caught up after a restart. parseMessage() has readmitted it.
+		if (message.startsWith("rejoin")) {
+			System.out.println("Server " + senderId + " is back.");
+		}
+		
+		// a learner missed a decision. resend it.
+		if (message.startsWith("relearn")) {
+			int slot = Integer.parseInt(message.split("\\s+")[1]);
+			messenger.receiveRelearn(senderId, slot);
 		}
 	}
 	
@@ -222,23 +558,61 @@ public class ServerThread extends Thread {
 	* Executes valid server command. <br>
 	*/
 	public String execute(String command) {
+		return execute(server, command);
+	}
+	
+	/** encode()
+	* 
+	* Rewrites the user and product names of a purchase as "#<id>" symbols. <br>
+	* Names that are not known yet stay as text, unless intern is set:
+	* then new users get the next id. Only the log may intern, in slot order,
+	* so that every replica hands out the same ids.
+	*/
+	public static String encode(Server server, String command, boolean intern) {
+		String[] tokens = command.trim().split("\\s+");
+		if (tokens.length != 4 || !tokens[0].equalsIgnoreCase("purchase")) {
+			return command;
+		}
+		
+		String user = tokens[1];
+		if (!user.startsWith(SymbolTable.PREFIX)) {
+			user = intern ? SymbolTable.PREFIX + server.getUsers().intern(user) : server.getUsers().encode(user);
+		}
+		String product = server.getProducts().encode(tokens[2]);
+		return tokens[0] + " " + user + " " + product + " " + tokens[3];
+	}
+	
+	/** execute()
+	* 
+	* Executes valid server command against a server. <br>
+	* The command log applies chosen commands through here in slot order.
+	*/
+	public static String execute(Server server, String command) {
 		String response = "";
 		String[] tokens = command.trim().split("\\s+");
 		try { // parse and execute
 			String opcode = tokens[0].toLowerCase();
-			if (opcode.equals("list")) {
+			if (opcode.equals("noop")) {
+				response = ""; // lease renewal / read barrier. changes nothing.
+			} else if (opcode.equals("list")) {
 				response = server.list();
 			} else if (opcode.equals("purchase")) {
-				String user = tokens[1];
-				String product = tokens[2];
-				Integer quantity = Integer.parseInt(tokens[3]);
-				response = server.purchase(user, product, quantity);
+				int user = server.getUsers().resolve(tokens[1]);
+				user = (user < 0) ? server.getUsers().intern(tokens[1]) : user;
+				int product = server.getProducts().resolve(tokens[2]);
+				int quantity = Integer.parseInt(tokens[3]);
+				int orderId = Integer.parseInt(tokens[4]); // handed out by the log.
+				response = server.purchase(orderId, user, product, quantity);
 			} else if (opcode.equals("cancel")) {
 				Integer orderId = Integer.parseInt(tokens[1]);
 				response = server.cancel(orderId);
 			} else if (opcode.equals("search")) {
 				String username = tokens[1];
 				response = server.search(username);
+			} else if (opcode.equals("addserver")) { // "addserver <id> <ip_address>:<port>"
+				response = server.getMessenger().addMember(Integer.parseInt(tokens[1]), ServerTag.parse(tokens[2]));
+			} else if (opcode.equals("removeserver")) { // "removeserver <id>"
+				response = server.getMessenger().removeMember(Integer.parseInt(tokens[1]));
 			} else {
 				response = "server command not supported: " + opcode;
 			}
@@ -2,43 +2,112 @@ package server;
 
 import java.io.IOException;
 import java.net.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
-/** ServerTCPListener
+/** ServerUDPListener
  * Listens for incoming UDP requests from e-commerce clients.
- * 
- * By: Gaurav Nagar, Hari Kosuru, 
+ * Received packets go into a bounded queue, served by a fixed pool of workers.
+ * Packets and their buffers are recycled. When the queue is full, a packet is dropped:
+ * paxos retransmits whatever it still needs.
+ *
+ * By: Gaurav Nagar, Hari Kosuru,
  * Taylor Schmidt, and Ronald Macmaster.
  * UT-EIDs: gn3544, hk8633, trs2277,  rpm953
  * Date: 4/21/2017
  */
 public class ServerUDPListener extends Thread {
-	
+
 	private int port;
 	private Server server;
-	
+	private ServerThread handler; // services packets. shared: it keeps no per-packet state.
+
+	private BlockingQueue<DatagramPacket> queue; // received, waiting for a worker.
+	private BlockingQueue<DatagramPacket> free; // recycled packets and their buffers.
+
+	// counters for the stats command.
+	private AtomicLong received = new AtomicLong();
+	private AtomicLong dropped = new AtomicLong();
+	private AtomicLong handled = new AtomicLong();
+	private AtomicLong deepest = new AtomicLong(); // highest queue depth seen.
+
 	/** ServerUDPListener <br>
-	 * 
+	 *
 	 * Constructs a new ServerUDPListener Object. <br>
 	 */
 	public ServerUDPListener(Server server, int port) {
+		super("udp-listener");
 		this.port = port;
 		this.server = server;
+		this.handler = new ServerThread(server);
+
+		int capacity = Math.max(1, ServerConfig.UDP_QUEUE);
+		int workers = Math.max(1, ServerConfig.UDP_WORKERS);
+		this.queue = new ArrayBlockingQueue<DatagramPacket>(capacity);
+		this.free = new ArrayBlockingQueue<DatagramPacket>(capacity + workers + 1);
+		for (int idx = 0; idx < capacity + workers + 1; idx++) {
+			byte[] data = new byte[ServerConfig.DATAGRAM_SIZE];
+			free.add(new DatagramPacket(data, data.length));
+		}
 	}
-	
+
 	public void run() {
+		for (int idx = 0; idx < ServerConfig.UDP_WORKERS; idx++) {
+			ThreadStarter.start(new Runnable() {
+				@Override
+				public void run() {
+					serve();
+				}
+			});
+		}
+
 		try (DatagramSocket socket = new DatagramSocket(port);) {
-			final int length = 1024;
 			while (true) { // listen for udp clients
-				byte[] data = new byte[length];
-				DatagramPacket packet = new DatagramPacket(data, length);
+				DatagramPacket packet = free.take(); // one is always free: the queue holds fewer.
+				packet.setLength(packet.getData().length);
 				socket.receive(packet);
-				ServerThread worker = new ServerThread(server, packet);
-				worker.start();
+				received.incrementAndGet();
+				if (queue.offer(packet)) {
+					deepest.set(Math.max(deepest.get(), queue.size()));
+				} else { // workers are behind. the sender retransmits.
+					dropped.incrementAndGet();
+					free.add(packet);
+				}
 			}
-		} catch (IOException e) {
+		} catch (IOException | InterruptedException e) {
 			System.out.println("Error listening on UDP Socket. exiting...");
 			e.printStackTrace();
 		}
 	}
-	
+
+	/**
+	 * worker loop: services queued packets, then recycles them. <br>
+	 */
+	private void serve() {
+		try {
+			while (true) {
+				DatagramPacket packet = queue.take();
+				try {
+					handler.serviceUDP(packet);
+				} catch (RuntimeException err) {
+					System.err.println("Error servicing UDP request: " + err);
+				}
+				handled.incrementAndGet();
+				free.add(packet);
+			}
+		} catch (InterruptedException e) {
+			System.err.println("UDP worker interrupted. exiting...");
+		}
+	}
+
+	/**
+	 * getStats()
+	 * returns the packet counters and queue depth. <br>
+	 */
+	public String getStats() {
+		return String.format("udp received %d, handled %d, dropped %d, queued %d (max %d of %d), workers %d",
+				received.get(), handled.get(), dropped.get(), queue.size(), deepest.get(), ServerConfig.UDP_QUEUE, ServerConfig.UDP_WORKERS);
+	}
+
 }
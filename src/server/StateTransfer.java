@@ -0,0 +1,180 @@
+package server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import messenger.ServerMessenger;
+import model.ServerTag;
+
+/** StateTransfer
+ * Catches up a lagging or restarted replica from a peer, over the peer's TCP port.
+ * The replica sends "sync <applied>". The peer streams a snapshot of its store in chunks,
+ * if the replica is behind the peer's snapshot, then every decided slot after it.
+ * The replica installs them and rejoins the quorum. No slot is re-run through paxos.
+ *
+ * By: Gaurav Nagar, Hari Kosuru,
+ * Taylor Schmidt, and Ronald Macmaster.
+ * UT-EIDs: gn3544, hk8633, trs2277,  rpm953
+ * Date: 4/29/2017
+ */
+public class StateTransfer {
+
+	// bytes per snapshot chunk on the wire.
+	private static final int CHUNK_SIZE = 8192;
+
+	private Server server;
+	private boolean running = false; // one catch-up at a time.
+
+	/** StateTransfer <br>
+	 *
+	 * Constructs a new StateTransfer Object. <br>
+	 */
+	public StateTransfer(Server server) {
+		this.server = server;
+	}
+
+	/**
+	 * serve()
+	 *
+	 * Streams our state to a peer that has applied every slot below from. <br>
+	 * Wire format, after the "ping" line every TCP command gets:
+	 * [int 1][chunks: int length, bytes]...[int 0] if a snapshot follows, else [int 0].
+	 * Then [int slot][utf command]... for every decided slot after it, and [int -1].
+	 */
+	public void serve(int from, OutputStream stream) throws IOException {
+		CommandLog log = server.getLog();
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+
+		// the commands below our snapshot are gone. send the store itself.
+		int start = from;
+		if (from < log.getSnapshotSlot()) {
+			byte[] state = log.captureSnapshot();
+			start = CommandLog.getSnapshotSlot(state);
+			out.writeInt(1);
+			for (int offset = 0; offset < state.length; offset += CHUNK_SIZE) {
+				int length = Math.min(CHUNK_SIZE, state.length - offset);
+				out.writeInt(length);
+				out.write(state, offset, length);
+			}
+			out.writeInt(0);
+		} else {
+			out.writeInt(0);
+		}
+
+		for (Map.Entry<Integer, String> entry : log.getDecided(start).entrySet()) {
+			out.writeInt(entry.getKey());
+			out.writeUTF(entry.getValue());
+		}
+		out.writeInt(-1);
+		out.flush();
+		System.out.format("Sent state from slot %d to a peer at slot %d.%n", start, from);
+	}
+
+	/**
+	 * catchUp()
+	 *
+	 * Fetches the state we are missing in the background. <br>
+	 * @param peerId server to fetch from, or null to try each peer in turn.
+	 */
+	public synchronized void catchUp(final Integer peerId) {
+		if (running) {
+			return;
+		}
+		running = true;
+		Thread fetcher = new Thread("catch-up") {
+			@Override
+			public void run() {
+				try {
+					ServerMessenger messenger = server.getMessenger();
+					List<Integer> peers = new ArrayList<Integer>();
+					if (peerId != null) {
+						peers.add(peerId);
+					} else {
+						peers.addAll(messenger.getMemberIds());
+						peers.remove(messenger.getServerId());
+					}
+					for (Integer peer : peers) {
+						if (fetch(peer)) {
+							messenger.rejoin();
+							break;
+						}
+					}
+				} finally {
+					synchronized (StateTransfer.this) {
+						running = false;
+					}
+				}
+			}
+		};
+		fetcher.setDaemon(true);
+		fetcher.start();
+	}
+
+	/**
+	 * fetch()
+	 *
+	 * Pulls and installs a peer's state. <br>
+	 * returns false if the peer could not be reached.
+	 */
+	private boolean fetch(Integer peerId) {
+		ServerMessenger messenger = server.getMessenger();
+		CommandLog log = server.getLog();
+		ServerTag tag = messenger.getMemberTag(peerId);
+		try (Socket peer = new Socket()) {
+			peer.connect(new InetSocketAddress(tag.getAddress(), tag.getPort()), 500);
+			peer.setSoTimeout(10000);
+			PrintWriter request = new PrintWriter(peer.getOutputStream(), true);
+			request.println("sync " + log.getApplied());
+
+			InputStream stream = new BufferedInputStream(peer.getInputStream());
+			skipLine(stream); // "ping"
+			DataInputStream in = new DataInputStream(stream);
+
+			if (in.readInt() == 1) { // snapshot chunks
+				ByteArrayOutputStream state = new ByteArrayOutputStream();
+				byte[] chunk = new byte[CHUNK_SIZE];
+				int length = 0;
+				while ((length = in.readInt()) > 0) {
+					in.readFully(chunk, 0, length);
+					state.write(chunk, 0, length);
+				}
+				if (log.install(state.toByteArray())) {
+					System.out.format("Installed a snapshot from server %d. applied up to slot %d.%n", peerId, log.getApplied());
+				}
+			}
+
+			int slot = 0, learned = 0;
+			while ((slot = in.readInt()) >= 0) {
+				messenger.receiveLearnedValue(slot, in.readUTF());
+				learned += 1;
+			}
+			System.out.format("Caught up from server %d: %d slots. applied up to slot %d.%n", peerId, learned, log.getApplied());
+			return true;
+		} catch (IOException err) {
+			System.err.format("Could not catch up from server %d: %s%n", peerId, err.getMessage());
+			return false;
+		}
+	}
+
+	private static void skipLine(InputStream stream) throws IOException {
+		int read = 0;
+		while ((read = stream.read()) != '\n') {
+			if (read < 0) {
+				throw new IOException("peer closed the connection");
+			}
+		}
+	}
+
+}
@@ -0,0 +1,144 @@
+package server;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** SymbolTable
+ * Dictionary of names (users or products) and their dense int ids.
+ * Ids are handed out in intern order. Replicas intern names while they apply the log,
+ * in log order, so every replica gives a name the same id.
+ * Commands in the log refer to a known name by its id, written "#<id>".
+ *
+ * By: Gaurav Nagar, Hari Kosuru,
+ * Taylor Schmidt, and Ronald Macmaster.
+ * UT-EIDs: gn3544, hk8633, trs2277,  rpm953
+ * Date: 4/27/2017
+ */
+public class SymbolTable {
+
+	// marks a symbol id inside a command.
+	public static final String PREFIX = "#";
+
+	private ConcurrentHashMap<String, Integer> ids; // name -> id
+	private volatile String[] names; // id -> name
+	private volatile int size = 0;
+
+	/** SymbolTable <br>
+	 *
+	 * Constructs a new, empty SymbolTable. <br>
+	 */
+	public SymbolTable() {
+		this.ids = new ConcurrentHashMap<String, Integer>();
+		this.names = new String[16];
+	}
+
+	/**
+	 * intern()
+	 *
+	 * returns the id of a name, giving new names the next id. <br>
+	 * A known name is looked up without the lock, so the apply lanes only contend on new names.
+	 */
+	public int intern(String name) {
+		Integer id = ids.get(name);
+		return (id == null) ? add(name) : id;
+	}
+
+	/**
+	 * hands a new name the next id. another thread may have added it first. <br>
+	 */
+	private synchronized int add(String name) {
+		Integer id = ids.get(name);
+		if (id == null) {
+			if (size == names.length) {
+				names = Arrays.copyOf(names, size * 2);
+			}
+			names[size] = name;
+			id = size;
+			size = size + 1;
+			ids.put(name, id);
+		}
+		return id;
+	}
+
+	/**
+	 * returns the id of a name, or null if it was never interned.
+	 */
+	public Integer lookup(String name) {
+		return ids.get(name);
+	}
+
+	/**
+	 * returns the name of an id.
+	 */
+	public String getName(int id) {
+		return names[id];
+	}
+
+	/**
+	 * returns the number of names interned.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * write()
+	 *
+	 * Writes every name, in id order. <br>
+	 */
+	public void write(DataOutputStream out) throws IOException {
+		int count = size;
+		String[] names = this.names;
+		out.writeInt(count);
+		for (int id = 0; id < count; id++) {
+			out.writeUTF(names[id]);
+		}
+	}
+
+	/**
+	 * read()
+	 *
+	 * Interns the names written by write(), so each gets back its id. <br>
+	 */
+	public void read(DataInputStream in) throws IOException {
+		int count = in.readInt();
+		for (int id = 0; id < count; id++) {
+			if (intern(in.readUTF()) != id) {
+				throw new IOException("symbol " + id + " does not match the snapshot");
+			}
+		}
+	}
+
+	/**
+	 * encode()
+	 *
+	 * returns "#<id>" for a known name, or the name itself. <br>
+	 */
+	public String encode(String name) {
+		Integer id = ids.get(name);
+		return (id == null) ? name : PREFIX + id;
+	}
+
+	/**
+	 * resolve()
+	 *
+	 * returns the id a command token refers to: "#<id>", or a known name. <br>
+	 * returns -1 for an unknown name.
+	 * @throws IllegalArgumentException for an id that was never handed out.
+	 */
+	public int resolve(String token) {
+		if (token.startsWith(PREFIX)) {
+			int id = Integer.parseInt(token.substring(PREFIX.length()));
+			if (id < 0 || id >= size) {
+				throw new IllegalArgumentException("unknown symbol " + token);
+			}
+			return id;
+		}
+		Integer id = ids.get(token);
+		return (id == null) ? -1 : id;
+	}
+
+}
@@ -0,0 +1,63 @@
+package server;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/** ThreadStarter
+ * Starts the per-request threads: client sessions and UDP workers.
+ * With -Dserver.threads=virtual each runs on a virtual thread, so a blocked session
+ * holds no platform thread. Virtual threads need Java 21. They are looked up by reflection,
+ * so the server still builds for older JVMs, and falls back to platform threads on them.
+ *
+ * By: Gaurav Nagar, Hari Kosuru,
+ * Taylor Schmidt, and Ronald Macmaster.
+ * UT-EIDs: gn3544, hk8633, trs2277,  rpm953
+ * Date: 4/29/2017
+ */
+public final class ThreadStarter {
+
+	// makes virtual threads. null runs every task on a new platform thread.
+	private static final ThreadFactory VIRTUAL = ServerConfig.THREAD_MODE.equals("virtual") ? getVirtualFactory() : null;
+
+	private ThreadStarter() {
+		// static helpers only.
+	}
+
+	/**
+	 * start()
+	 *
+	 * Runs a task on a new thread of the configured kind. <br>
+	 * A Thread subclass is run as a plain task: only its run() is used.
+	 */
+	public static void start(Runnable task) {
+		if (VIRTUAL != null) {
+			VIRTUAL.newThread(task).start();
+		} else if (task instanceof Thread) {
+			((Thread) task).start();
+		} else {
+			new Thread(task).start();
+		}
+	}
+
+	/**
+	 * true if tasks run on virtual threads. <br>
+	 */
+	public static boolean isVirtual() {
+		return VIRTUAL != null;
+	}
+
+	/**
+	 * returns Thread.ofVirtual().factory(), or null if this JVM has no virtual threads. <br>
+	 */
+	private static ThreadFactory getVirtualFactory() {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+			return (ThreadFactory) factory.invoke(builder);
+		} catch (ReflectiveOperationException err) {
+			System.err.println("Virtual threads need Java 21. using platform threads.");
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,164 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/** TimerWheel
+ * One thread runs every timer of the server: session keep-alives, paxos retransmits and request deadlines.
+ * A hashed wheel: time is cut into ticks, and a timer waits in the bucket of the tick it is due,
+ * modulo the wheel size. Each tick the thread runs the due timers of one bucket.
+ * Scheduling and cancelling are O(1) and lock-free. Timers fire up to one tick late.
+ * Timer tasks run on the wheel thread. They must be short, and must never wait on another timer.
+ *
+ * By: Gaurav Nagar, Hari Kosuru,
+ * Taylor Schmidt, and Ronald Macmaster.
+ * UT-EIDs: gn3544, hk8633, trs2277,  rpm953
+ * Date: 4/30/2017
+ */
+public class TimerWheel implements Runnable {
+
+	// milliseconds per tick.
+	private static final long TICK = 10;
+
+	// buckets. a timer further out than one turn stays in its bucket for the later turns.
+	private static final int WHEEL_SIZE = 512;
+
+	private List<LinkedList<Timeout>> buckets;
+	private ConcurrentLinkedQueue<Timeout> scheduled; // new timers, for the wheel thread to place.
+	private long start; // when tick 0 began. (ms)
+	private long ticks = 0; // ticks run so far. wheel thread only.
+
+	/** Timeout
+	 * A scheduled task. Cancel it once it is no longer needed.
+	 */
+	public static class Timeout {
+
+		private Runnable task;
+		private long delay; // ms until it is due.
+		private long period; // ms between runs, or 0 to run once.
+		private long due; // tick it is due at. wheel thread only.
+		private volatile boolean cancelled = false;
+
+		private Timeout(Runnable task, long delay, long period) {
+			this.task = task;
+			this.delay = delay;
+			this.period = period;
+		}
+
+		/**
+		 * stops the timer. a run already under way finishes. <br>
+		 */
+		public void cancel() {
+			cancelled = true;
+		}
+	}
+
+	/** TimerWheel <br>
+	 *
+	 * Constructs a new TimerWheel Object. Call start() to run its timers. <br>
+	 */
+	public TimerWheel() {
+		this.buckets = new ArrayList<LinkedList<Timeout>>(WHEEL_SIZE);
+		for (int idx = 0; idx < WHEEL_SIZE; idx++) {
+			buckets.add(new LinkedList<Timeout>());
+		}
+		this.scheduled = new ConcurrentLinkedQueue<Timeout>();
+	}
+
+	/**
+	 * start()
+	 *
+	 * Starts the wheel thread. <br>
+	 */
+	public void start() {
+		this.start = System.currentTimeMillis();
+		Thread wheel = new Thread(this, "timer-wheel");
+		wheel.setDaemon(true);
+		wheel.start();
+	}
+
+	/**
+	 * schedule()
+	 *
+	 * Runs a task once, after delay ms. <br>
+	 */
+	public Timeout schedule(Runnable task, long delay) {
+		Timeout timeout = new Timeout(task, delay, 0);
+		scheduled.add(timeout);
+		return timeout;
+	}
+
+	/**
+	 * repeat()
+	 *
+	 * Runs a task every period ms, until it is cancelled. <br>
+	 */
+	public Timeout repeat(Runnable task, long period) {
+		Timeout timeout = new Timeout(task, period, Math.max(TICK, period));
+		scheduled.add(timeout);
+		return timeout;
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			// sleep until the next tick begins.
+			long next = start + (ticks + 1) * TICK;
+			long sleep = next - System.currentTimeMillis();
+			if (sleep > 0) {
+				try {
+					Thread.sleep(sleep);
+				} catch (InterruptedException err) {
+					System.err.println("Timer wheel interrupted. exiting...");
+					return;
+				}
+			}
+			ticks += 1;
+
+			Timeout timeout = null;
+			while ((timeout = scheduled.poll()) != null) {
+				place(timeout, timeout.delay);
+			}
+			expire(buckets.get((int) (ticks % WHEEL_SIZE)));
+		}
+	}
+
+	/**
+	 * puts a timer in the bucket of the tick it is due at. never the current tick's, which is running. <br>
+	 */
+	private void place(Timeout timeout, long delay) {
+		timeout.due = ticks + Math.max(1, (delay + TICK - 1) / TICK);
+		buckets.get((int) (timeout.due % WHEEL_SIZE)).add(timeout);
+	}
+
+	/**
+	 * runs the due timers of a bucket. repeating ones go back into the wheel. <br>
+	 */
+	private void expire(LinkedList<Timeout> bucket) {
+		List<Timeout> repeats = new ArrayList<Timeout>();
+		Iterator<Timeout> timeouts = bucket.iterator();
+		while (timeouts.hasNext()) {
+			Timeout timeout = timeouts.next();
+			if (timeout.cancelled) {
+				timeouts.remove();
+			} else if (timeout.due <= ticks) {
+				timeouts.remove();
+				try {
+					timeout.task.run();
+				} catch (RuntimeException err) {
+					System.err.println("Timer task failed: " + err);
+				}
+				if (timeout.period > 0 && !timeout.cancelled) {
+					repeats.add(timeout);
+				}
+			}
+		}
+		for (Timeout timeout : repeats) {
+			place(timeout, timeout.period);
+		}
+	}
+
+}